@@ -0,0 +1,66 @@
+package droute;
+
+/**
+ * Content-coding negotiation against the Accept-Encoding request header.
+ */
+public class AcceptEncoding {
+	private AcceptEncoding() {}
+
+	/**
+	 * True if the request's Accept-Encoding header allows the given content coding.
+	 */
+	public static boolean accepts(Request request, String coding) {
+		return accepts(request.header("Accept-Encoding"), coding);
+	}
+
+	/**
+	 * True if an Accept-Encoding header value allows the given content coding, either by
+	 * name or through "*", with a non-zero quality value.
+	 */
+	public static boolean accepts(String header, String coding) {
+		if (header == null) {
+			return false;
+		}
+		int n = header.length();
+		int star = -1;
+		int start = 0;
+		while (start < n) {
+			int end = header.indexOf(',', start);
+			if (end < 0) {
+				end = n;
+			}
+			int semi = header.indexOf(';', start);
+			int nameEnd = semi >= 0 && semi < end ? semi : end;
+			String name = header.substring(start, nameEnd).trim();
+			if (name.equalsIgnoreCase(coding)) {
+				return quality(header, nameEnd, end) > 0;
+			} else if (name.equals("*")) {
+				star = quality(header, nameEnd, end) > 0 ? 1 : 0;
+			}
+			start = end + 1;
+		}
+		return star == 1;
+	}
+
+	/**
+	 * Parses the q parameter among the parameters in header[start, end), defaulting to 1.
+	 */
+	private static double quality(String header, int start, int end) {
+		while (start < end) {
+			int next = header.indexOf(';', start + 1);
+			if (next < 0 || next > end) {
+				next = end;
+			}
+			String param = header.substring(start + 1, next).trim();
+			if (param.length() > 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+				try {
+					return Double.parseDouble(param.substring(2));
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+			start = next;
+		}
+		return 1;
+	}
+}
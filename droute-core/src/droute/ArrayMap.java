@@ -8,9 +8,15 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+/**
+ * An immutable map backed by a flat array of keys and values. Cheap to build and scan while
+ * small, so a plain ArrayMap promotes itself to a HashTrieMap once with() would grow it past
+ * PROMOTE_THRESHOLD entries. Subclasses keep their own representation.
+ */
 @SuppressWarnings("unchecked")
-class ArrayMap<K, V> implements Map<K,V> {
+class ArrayMap<K, V> implements PersistentMap<K,V> {
 	private static final ArrayMap<?, ?> EMPTY = new ArrayMap<>(new Object[0]);
+	static final int PROMOTE_THRESHOLD = 16;
 
 	public static <K,V> ArrayMap<K, V> emptyMap() {
 		return (ArrayMap<K, V>) EMPTY;
@@ -76,7 +82,11 @@ class ArrayMap<K, V> implements Map<K,V> {
 		}
 	}
 	
-	public ArrayMap<K,V> with(K key, V value) {
+	@Override
+	public PersistentMap<K,V> with(K key, V value) {
+		if (getClass() == ArrayMap.class && array.length >= PROMOTE_THRESHOLD * 2 && indexOf(key) < 0) {
+			return HashTrieMap.copyOf(this).with(key, value);
+		}
 		return new ArrayMap<K,V>(arrayWith(key, value));
 	}
 	
@@ -88,11 +98,12 @@ class ArrayMap<K, V> implements Map<K,V> {
 			int newSize = this.array.length - 2;
 			Object[] array = new Object[newSize];
 			System.arraycopy(this.array, 0, array, 0, i);
-			System.arraycopy(this.array, i + 2, array, i, newSize);
+			System.arraycopy(this.array, i + 2, array, i, newSize - i);
 			return array;
 		}
 	}
 
+	@Override
 	public ArrayMap<K,V> without(K key) {
 		Object[] array = arrayWithout(key);
 		if (array == this.array) {
@@ -170,7 +181,7 @@ class ArrayMap<K, V> implements Map<K,V> {
 
 	@Override
 	public boolean isEmpty() {
-		return array.length != 0;
+		return array.length == 0;
 	}
 
 	@Override
@@ -230,7 +241,7 @@ class ArrayMap<K, V> implements Map<K,V> {
 
 			@Override
 			public V get(int i) {
-				return (V)array[i / 2 + 1];
+				return (V)array[i * 2 + 1];
 			}
 
 			@Override
@@ -0,0 +1,204 @@
+package droute;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Serves classpath resources under content-fingerprinted URLs which can be cached forever.
+ *
+ * At startup every resource under resourcesRoot is hashed and given a URL with the hash in
+ * its file name, so "css/site.css" becomes "/assets/css/site.3f2a9c01b7.css". Those URLs are
+ * served with "Cache-Control: public, max-age=31536000, immutable" because any change to the
+ * file changes its URL. Templates look the URLs up with path(), through the FreeMarker and
+ * Handlebars helpers, which put them under the context path of the request being rendered.
+ * Plain logical paths are also served, without the long-lived caching.
+ */
+public class Assets implements Handler {
+	private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+	private static final int HASH_LENGTH = 10;
+
+	private final String urlPrefix;
+	private final String resourcesRoot;
+	private final ResourceCache cache;
+	private final Handler route;
+	/**
+	 * Logical path to fingerprinted path, both relative to the root.
+	 */
+	private final Map<String,String> manifest;
+	private final Map<String,String> logicalPaths = new HashMap<>();
+
+	/**
+	 * Fingerprints the resources under resourcesRoot using the context classloader and
+	 * serves them under urlPrefix from a 32MB cache.
+	 */
+	public static Assets scan(String urlPrefix, String resourcesRoot) {
+		try {
+			return new Assets(urlPrefix, resourcesRoot, new ResourceCache(32 * 1024 * 1024));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public Assets(String urlPrefix, String resourcesRoot, ResourceCache cache) throws IOException {
+		this.urlPrefix = urlPrefix;
+		this.resourcesRoot = resourcesRoot;
+		this.cache = cache;
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		Map<String,String> manifest = new TreeMap<>();
+		for (String logical : list(loader, resourcesRoot)) {
+			URL url = loader.getResource(resourcesRoot + "/" + logical);
+			if (url == null) {
+				continue;
+			}
+			String fingerprinted = fingerprint(logical, hash(url));
+			manifest.put(logical, fingerprinted);
+			logicalPaths.put(fingerprinted, logical);
+		}
+		this.manifest = Collections.unmodifiableMap(manifest);
+		this.route = Route.GET(urlPrefix + "/*", request -> serve(request, request.urlParam("*")));
+	}
+
+	/**
+	 * Returns the fingerprinted URL of an asset relative to the context root, such as
+	 * "/assets/js/app.0c1d2e3f4a.js" for "js/app.js". Unknown assets get their plain URL.
+	 */
+	public String path(String logicalPath) {
+		if (logicalPath.startsWith("/")) {
+			logicalPath = logicalPath.substring(1);
+		}
+		String fingerprinted = manifest.get(logicalPath);
+		return urlPrefix + "/" + (fingerprinted != null ? fingerprinted : logicalPath);
+	}
+
+	/**
+	 * Returns the fingerprinted URL of an asset under the request's context path, so that
+	 * an app mounted at "/shop", or proxied there with X-Forwarded-Path, links to
+	 * "/shop/assets/js/app.0c1d2e3f4a.js".
+	 */
+	public String path(Request request, String logicalPath) {
+		String contextPath = request.contextPath();
+		if (contextPath == null) {
+			return path(logicalPath);
+		}
+		if (contextPath.endsWith("/")) {
+			contextPath = contextPath.substring(0, contextPath.length() - 1);
+		}
+		return contextPath + path(logicalPath);
+	}
+
+	/**
+	 * The logical path to fingerprinted path mapping, relative to the URL prefix.
+	 */
+	public Map<String,String> manifest() {
+		return manifest;
+	}
+
+	@Override
+	public Response handle(Request request) {
+		return route.handle(request);
+	}
+
+	private Response serve(Request request, String path) {
+		String logical = logicalPaths.get(path);
+		if (logical != null) {
+			Response response = cache.get(request, resourcesRoot + "/" + logical);
+			return response != null ? response.withHeader("Cache-Control", IMMUTABLE) : Response.NEXT_HANDLER;
+		} else if (manifest.containsKey(path)) {
+			Response response = cache.get(request, resourcesRoot + "/" + path);
+			return response != null ? response : Response.NEXT_HANDLER;
+		}
+		return Response.NEXT_HANDLER;
+	}
+
+	/**
+	 * Inserts the hash before the extension of the file name.
+	 */
+	static String fingerprint(String path, String hash) {
+		int slash = path.lastIndexOf('/');
+		int dot = path.lastIndexOf('.');
+		if (dot <= slash + 1) {
+			return path + "." + hash;
+		}
+		return path.substring(0, dot) + "." + hash + path.substring(dot);
+	}
+
+	private static String hash(URL url) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		try (InputStream in = url.openStream()) {
+			byte[] buf = new byte[16384];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				digest.update(buf, 0, n);
+			}
+		}
+		StringBuilder hex = new StringBuilder(HASH_LENGTH);
+		for (byte b : digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			if (hex.length() >= HASH_LENGTH) {
+				break;
+			}
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Lists the resources under root in directories and jars on the classpath, as paths
+	 * relative to root.
+	 */
+	private static Iterable<String> list(ClassLoader loader, String root) throws IOException {
+		Map<String,Boolean> found = new TreeMap<>();
+		Enumeration<URL> roots = loader.getResources(root);
+		while (roots.hasMoreElements()) {
+			URL url = roots.nextElement();
+			if (url.getProtocol().equals("file")) {
+				Path dir;
+				try {
+					dir = Paths.get(url.toURI());
+				} catch (URISyntaxException e) {
+					throw new IOException(e);
+				}
+				try (Stream<Path> files = Files.walk(dir)) {
+					files.filter(Files::isRegularFile).forEach(file -> {
+						found.put(dir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"), true);
+					});
+				}
+			} else if (url.getProtocol().equals("jar")) {
+				JarURLConnection conn = (JarURLConnection) url.openConnection();
+				conn.setUseCaches(false);
+				String prefix = conn.getEntryName() + "/";
+				try (JarFile jar = conn.getJarFile()) {
+					Enumeration<JarEntry> entries = jar.entries();
+					while (entries.hasMoreElements()) {
+						JarEntry entry = entries.nextElement();
+						if (!entry.isDirectory() && entry.getName().startsWith(prefix)) {
+							found.put(entry.getName().substring(prefix.length()), true);
+						}
+					}
+				}
+			}
+		}
+		return found.keySet();
+	}
+}
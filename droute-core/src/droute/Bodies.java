@@ -0,0 +1,221 @@
+package droute;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.function.Consumer;
+
+/**
+ * Helpers for middleware which needs to look at whole response bodies.
+ */
+class Bodies {
+	private Bodies() {}
+
+	/**
+	 * Returns the bytes of a String or byte[] body, or null for any other kind of body.
+	 */
+	static byte[] bytes(Object body) {
+		if (body instanceof byte[]) {
+			return (byte[]) body;
+		} else if (body instanceof String) {
+			return ((String) body).getBytes(StandardCharsets.UTF_8);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads a body into memory without ever holding more than limit bytes of it. InputStream
+	 * bodies are read until they turn out to be larger than limit, and what was read is
+	 * replayed ahead of the rest. A Streamable can only be written once, so it is buffered
+	 * only when its Content-Length says it fits. Bodies of other kinds, or whose size isn't
+	 * known to fit, are left untouched.
+	 */
+	static Buffered buffer(Object body, long contentLength, int limit) {
+		byte[] bytes = bytes(body);
+		if (bytes != null) {
+			return bytes.length <= limit ? new Buffered(bytes, body) : new Buffered(null, body);
+		}
+		if (contentLength > limit || !(body instanceof Streamable || body instanceof InputStream)
+				|| body instanceof Streamable && contentLength < 0) {
+			return new Buffered(null, body);
+		}
+		int size = (int) Math.min(contentLength > 0 ? contentLength : 8192, limit);
+		try {
+			if (body instanceof Streamable) {
+				LimitedBuffer out = new LimitedBuffer(size, (int) contentLength);
+				((Streamable) body).writeTo(out);
+				return new Buffered(out.toByteArray(), null);
+			}
+			InputStream in = (InputStream) body;
+			byte[] buf = new byte[size];
+			int count = 0;
+			while (true) {
+				if (count == buf.length) {
+					if (count == limit) {
+						int next = in.read();
+						if (next < 0) {
+							break;
+						}
+						InputStream read = new SequenceInputStream(new ByteArrayInputStream(buf, 0, count),
+								new ByteArrayInputStream(new byte[] {(byte) next}));
+						return new Buffered(null, new SequenceInputStream(read, in));
+					}
+					buf = Arrays.copyOf(buf, (int) Math.min(Math.max(buf.length * 2L, 8192), limit));
+				}
+				int n = in.read(buf, count, buf.length - count);
+				if (n < 0) {
+					break;
+				}
+				count += n;
+			}
+			in.close();
+			return new Buffered(count == buf.length ? buf : Arrays.copyOf(buf, count), null);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns the response to send when its body couldn't be buffered: the response itself if
+	 * the body was left untouched, or one replaying what was read of an InputStream.
+	 */
+	static Response unbuffered(Response response, Buffered buffered) {
+		return buffered.body == response.body() ? response : response.withBody(buffered.body);
+	}
+
+	/**
+	 * Wraps a Streamable so that what it writes is also collected, and passed to done once
+	 * the whole body has been written if it came to no more than limit bytes. Collecting
+	 * stops at the limit without affecting the output.
+	 */
+	static Streamable tee(Streamable body, int limit, Consumer<byte[]> done) {
+		return out -> {
+			LimitedBuffer copy = new LimitedBuffer(Math.min(8192, limit), limit);
+			body.writeTo(new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] {(byte) b}, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					if (!copy.overflowed) {
+						try {
+							copy.write(b, off, len);
+						} catch (Overflow e) {
+							// too large to keep, the output is unaffected
+						}
+					}
+				}
+
+				@Override
+				public void flush() throws IOException {
+					out.flush();
+				}
+			});
+			if (!copy.overflowed) {
+				done.accept(copy.toByteArray());
+			}
+		};
+	}
+
+	/**
+	 * The outcome of buffering a body.
+	 */
+	static final class Buffered {
+		/**
+		 * The whole body, or null if it wasn't buffered.
+		 */
+		final byte[] bytes;
+		/**
+		 * When bytes is null, the body to send in place of the original.
+		 */
+		final Object body;
+
+		Buffered(byte[] bytes, Object body) {
+			this.bytes = bytes;
+			this.body = body;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class Overflow extends IOException {
+		Overflow() {
+			super("body larger than its Content-Length or the buffer limit");
+		}
+	}
+
+	/**
+	 * A buffer which fails writes taking it over its limit, so that whatever is writing to it
+	 * stops rather than producing the rest of the body.
+	 */
+	private static final class LimitedBuffer extends OutputStream {
+		private final int limit;
+		private byte[] buf;
+		private int count;
+		boolean overflowed;
+
+		LimitedBuffer(int size, int limit) {
+			this.buf = new byte[size];
+			this.limit = limit;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (overflowed || len > limit - count) {
+				overflowed = true;
+				throw new Overflow();
+			}
+			if (count + len > buf.length) {
+				buf = Arrays.copyOf(buf, (int) Math.min(Math.max(buf.length * 2L, count + len), limit));
+			}
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+
+		byte[] toByteArray() {
+			return count == buf.length ? buf : Arrays.copyOf(buf, count);
+		}
+	}
+
+	/**
+	 * Returns the Content-Length of a response, or -1 if it isn't set.
+	 */
+	static long contentLength(Response response) {
+		String value = response.header("Content-Length");
+		if (value != null) {
+			try {
+				return Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				// treat as unknown
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A strong ETag derived from the content.
+	 */
+	static String etag(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+			return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22) + "\"";
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
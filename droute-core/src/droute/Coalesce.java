@@ -0,0 +1,118 @@
+package droute;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Middleware which runs identical concurrent GET and HEAD requests once. The first request
+ * runs the handler while requests arriving before it completes wait and are sent the same
+ * buffered response, so a burst of traffic to a slow uncached page costs one render. Nothing
+ * is kept once the response is produced, see ResponseCache for that.
+ *
+ * Requests are identical when their method, scheme, Host, path, query parameters and key
+ * headers match.
+ * The key headers default to Authorization, Cookie, Accept, Accept-Encoding and
+ * Accept-Language so that responses are never shared between users. Responses which set a
+ * cookie, or whose bodies can't be buffered within the limit, are not shared and waiting
+ * requests run the handler themselves, as they do when the response takes longer than the
+ * timeout. That includes Streamable bodies without a Content-Length, which can only be
+ * produced once.
+ */
+public class Coalesce {
+	private String[] keyHeaders = {"Authorization", "Cookie", "Accept", "Accept-Encoding", "Accept-Language"};
+	private long timeoutNanos = TimeUnit.SECONDS.toNanos(10);
+	private int bufferLimit = 1024 * 1024;
+
+	/**
+	 * Coalesces requests with the default settings.
+	 */
+	public static Handler wrap(Handler handler) {
+		return wrap(handler, new Coalesce());
+	}
+
+	public static Handler wrap(Handler handler, Coalesce settings) {
+		SingleFlight<String, Response> flights = new SingleFlight<>();
+		return request -> settings.handle(flights, handler, request);
+	}
+
+	/**
+	 * Sets the request headers which must match for requests to be coalesced, replacing the
+	 * defaults.
+	 */
+	public Coalesce keyHeaders(String... headers) {
+		keyHeaders = headers.clone();
+		return this;
+	}
+
+	/**
+	 * Sets how long a request waits for an identical one in flight before running the handler
+	 * itself.
+	 */
+	public Coalesce timeout(Duration timeout) {
+		if (timeout.isNegative() || timeout.isZero()) {
+			throw new IllegalArgumentException("timeout must be positive");
+		}
+		timeoutNanos = timeout.toNanos();
+		return this;
+	}
+
+	/**
+	 * Sets the largest body in bytes which is buffered to be shared.
+	 */
+	public Coalesce bufferLimit(int bytes) {
+		bufferLimit = bytes;
+		return this;
+	}
+
+	Response handle(SingleFlight<String, Response> flights, Handler handler, Request request) {
+		String method = request.method();
+		if (!(method.equals("GET") || method.equals("HEAD"))) {
+			return handler.handle(request);
+		}
+		Response[] own = new Response[1];
+		Response shared = flights.run(key(request), () -> {
+			own[0] = share(handler.handle(request));
+			return own[0].header("Set-Cookie") == null && isBuffered(own[0]) ? own[0] : null;
+		}, timeoutNanos, TimeUnit.NANOSECONDS);
+		if (own[0] != null) {
+			return own[0];
+		}
+		return shared != null ? shared : handler.handle(request);
+	}
+
+	/**
+	 * Buffers the body of a response so it can be sent more than once, returning the response
+	 * unchanged if that isn't possible.
+	 */
+	private Response share(Response response) {
+		Object body = response.body();
+		if (body == null || body instanceof String || body instanceof byte[] || response == Response.NEXT_HANDLER
+				|| response.header("Set-Cookie") != null) {
+			return response;
+		}
+		Bodies.Buffered buffered = Bodies.buffer(body, Bodies.contentLength(response), bufferLimit);
+		if (buffered.bytes == null) {
+			return Bodies.unbuffered(response, buffered);
+		}
+		return Response.builder(response)
+				.header("Content-Length", Integer.toString(buffered.bytes.length))
+				.body(buffered.bytes).build();
+	}
+
+	private static boolean isBuffered(Response response) {
+		Object body = response.body();
+		return body == null || body instanceof String || body instanceof byte[];
+	}
+
+	private String key(Request request) {
+		StringBuilder key = new StringBuilder(ResponseCache.key(request));
+		for (String name : keyHeaders) {
+			String value = request.header(name);
+			key.append('\n');
+			if (value != null) {
+				key.append(value.length()).append(':').append(value);
+			}
+		}
+		return key.toString();
+	}
+}
@@ -0,0 +1,348 @@
+package droute;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Middleware which compresses response bodies with gzip or deflate, whichever the client
+ * accepts, preferring gzip.
+ *
+ * String and byte[] bodies are compressed up front and sent with their compressed length.
+ * Streamable and InputStream bodies are compressed as they are written, with flushes passed
+ * through so streaming responses keep working. Responses that are already encoded, partial
+ * content whose Content-Range refers to the unencoded bytes, too small to benefit or of an
+ * already compressed type are passed through untouched.
+ *
+ * Deflaters hold native memory that is only released when they are ended, so they are kept
+ * in pools and reused rather than created per response.
+ */
+public class Compression {
+	private static final int DEFAULT_MINIMUM_SIZE = 1024;
+	private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+	private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+	/**
+	 * Idle Deflaters by wrapping then level. Raw deflate streams are used for gzip, whose
+	 * header and trailer are written by hand, and zlib wrapped ones for the deflate content
+	 * coding. Deflaters are pooled per level because a level change only takes effect after
+	 * the next call to deflate.
+	 */
+	private static final BlockingQueue<Deflater>[][] pools = newPools();
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static BlockingQueue<Deflater>[][] newPools() {
+		BlockingQueue<Deflater>[][] pools = new BlockingQueue[2][11];
+		for (BlockingQueue<Deflater>[] byLevel : pools) {
+			for (int i = 0; i < byLevel.length; i++) {
+				byLevel[i] = new ArrayBlockingQueue<>(POOL_SIZE);
+			}
+		}
+		return pools;
+	}
+
+	private int minimumSize = DEFAULT_MINIMUM_SIZE;
+	private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+	private final Map<String,Integer> levels = new HashMap<>();
+	private final Set<String> skippedTypes = new HashSet<>();
+
+	/**
+	 * Compresses responses with the default settings.
+	 */
+	public static Handler wrap(Handler handler) {
+		return wrap(handler, new Compression());
+	}
+
+	public static Handler wrap(Handler handler, Compression settings) {
+		return request -> settings.compress(request, handler.handle(request));
+	}
+
+	public Compression() {
+		for (String type : new String[] {"application/gzip", "application/x-gzip", "application/zip",
+				"application/x-7z-compressed", "application/x-bzip2", "application/x-rar-compressed",
+				"application/pdf", "font/woff", "font/woff2", "application/font-woff"}) {
+			skippedTypes.add(type);
+		}
+	}
+
+	/**
+	 * Sets the body size in bytes below which responses are not compressed. Streamed bodies
+	 * are compressed unless their Content-Length says they are smaller.
+	 */
+	public Compression minimumSize(int bytes) {
+		minimumSize = bytes;
+		return this;
+	}
+
+	/**
+	 * Sets the compression level, 1 to 9, for content types without a level of their own.
+	 */
+	public Compression level(int level) {
+		defaultLevel = checkLevel(level);
+		return this;
+	}
+
+	/**
+	 * Sets the compression level, 1 to 9, for a media type such as "application/json".
+	 */
+	public Compression level(String contentType, int level) {
+		levels.put(contentType.toLowerCase(Locale.ROOT), checkLevel(level));
+		return this;
+	}
+
+	/**
+	 * Never compresses responses of the given media type. Images, audio and video other than
+	 * SVG and common archive and font formats are skipped already.
+	 */
+	public Compression skip(String contentType) {
+		skippedTypes.add(contentType.toLowerCase(Locale.ROOT));
+		return this;
+	}
+
+	private static int checkLevel(int level) {
+		if (level < 1 || level > 9) {
+			throw new IllegalArgumentException("compression level must be from 1 to 9");
+		}
+		return level;
+	}
+
+	Response compress(Request request, Response response) {
+		Object body = response.body();
+		if (body == null || response == Response.NEXT_HANDLER
+				|| response.status() < 200 || response.status() == 204 || response.status() == 206
+				|| response.status() == 304 || request.method().equals("HEAD")
+				|| response.header("Content-Encoding") != null || response.header("Content-Range") != null) {
+			return response;
+		}
+		String cacheControl = response.header("Cache-Control");
+		if (cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains("no-transform")) {
+			return response;
+		}
+		String mediaType = mediaType(response.header("Content-Type"));
+		if (mediaType != null && isCompressed(mediaType)) {
+			return response;
+		}
+		String coding;
+		if (AcceptEncoding.accepts(request, "gzip")) {
+			coding = "gzip";
+		} else if (AcceptEncoding.accepts(request, "deflate")) {
+			coding = "deflate";
+		} else {
+			return response;
+		}
+		int level = levels.getOrDefault(mediaType, defaultLevel);
+		boolean gzip = coding.equals("gzip");
+
+		Response.Builder builder = Response.builder(response)
+				.header("Content-Encoding", coding)
+				.header("Vary", vary(response.header("Vary")));
+		String etag = response.header("ETag");
+		if (etag != null && etag.endsWith("\"")) {
+			builder.header("ETag", etag.substring(0, etag.length() - 1) + (gzip ? "-gz\"" : "-deflate\""));
+		}
+
+		if (body instanceof String || body instanceof byte[]) {
+			byte[] bytes = Bodies.bytes(body);
+			if (bytes.length < minimumSize) {
+				return response;
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 32);
+			try (OutputStream compressed = new DeflatingStream(out, gzip, level)) {
+				compressed.write(bytes);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			if (out.size() >= bytes.length) {
+				return response;
+			}
+			byte[] result = out.toByteArray();
+			return builder.header("Content-Length", Integer.toString(result.length)).body(result).build();
+		}
+
+		Streamable streamable;
+		if (body instanceof Streamable) {
+			streamable = (Streamable) body;
+		} else if (body instanceof InputStream) {
+			streamable = out -> {
+				try (InputStream in = (InputStream) body) {
+					byte[] buf = new byte[16384];
+					int n;
+					while ((n = in.read(buf)) >= 0) {
+						out.write(buf, 0, n);
+					}
+				}
+			};
+		} else {
+			return response;
+		}
+		long length = Bodies.contentLength(response);
+		if (length >= 0 && length < minimumSize) {
+			return response;
+		}
+		return builder.removeHeader("Content-Length")
+				.body((Streamable) out -> {
+					DeflatingStream compressed = new DeflatingStream(out, gzip, level);
+					try {
+						streamable.writeTo(compressed);
+						compressed.close();
+					} finally {
+						compressed.abandon();
+					}
+				})
+				.build();
+	}
+
+	private boolean isCompressed(String mediaType) {
+		if (mediaType.startsWith("image/")) {
+			return !mediaType.equals("image/svg+xml") && !mediaType.equals("image/x-icon") && !mediaType.equals("image/bmp");
+		}
+		return mediaType.startsWith("video/") || mediaType.startsWith("audio/") || skippedTypes.contains(mediaType);
+	}
+
+	private static String mediaType(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		int semi = contentType.indexOf(';');
+		return (semi < 0 ? contentType : contentType.substring(0, semi)).trim().toLowerCase(Locale.ROOT);
+	}
+
+	private static String vary(String existing) {
+		if (existing == null || existing.isEmpty()) {
+			return "Accept-Encoding";
+		}
+		for (String name : existing.split(",")) {
+			if (name.trim().equalsIgnoreCase("Accept-Encoding") || name.trim().equals("*")) {
+				return existing;
+			}
+		}
+		return existing + ", Accept-Encoding";
+	}
+
+	private static BlockingQueue<Deflater> pool(boolean gzip, int level) {
+		return pools[gzip ? 1 : 0][level + 1];
+	}
+
+	private static Deflater borrow(boolean gzip, int level) {
+		Deflater deflater = pool(gzip, level).poll();
+		return deflater != null ? deflater : new Deflater(level, gzip);
+	}
+
+	private static void release(Deflater deflater, boolean gzip, int level) {
+		deflater.reset();
+		if (!pool(gzip, level).offer(deflater)) {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Compresses everything written to it with a pooled Deflater, which is returned to the
+	 * pool on close. In gzip mode the gzip header and trailer are added around the raw
+	 * deflate stream.
+	 */
+	private static class DeflatingStream extends FilterOutputStream {
+		private final boolean gzip;
+		private final int level;
+		private final byte[] buf = new byte[8192];
+		private final CRC32 crc = new CRC32();
+		private Deflater deflater;
+
+		DeflatingStream(OutputStream out, boolean gzip, int level) throws IOException {
+			super(out);
+			this.gzip = gzip;
+			this.level = level;
+			this.deflater = borrow(gzip, level);
+			if (gzip) {
+				out.write(GZIP_HEADER);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (deflater == null) {
+				throw new IOException("stream closed");
+			}
+			if (gzip) {
+				crc.update(b, off, len);
+			}
+			deflater.setInput(b, off, len);
+			while (!deflater.needsInput()) {
+				drain(Deflater.NO_FLUSH);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (deflater != null) {
+				int n;
+				do {
+					n = drain(Deflater.SYNC_FLUSH);
+				} while (n == buf.length);
+			}
+			out.flush();
+		}
+
+		private int drain(int flush) throws IOException {
+			int n = deflater.deflate(buf, 0, buf.length, flush);
+			if (n > 0) {
+				out.write(buf, 0, n);
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (deflater == null) {
+				return;
+			}
+			try {
+				deflater.finish();
+				while (!deflater.finished()) {
+					drain(Deflater.NO_FLUSH);
+				}
+				if (gzip) {
+					writeIntLE((int) crc.getValue());
+					writeIntLE((int) deflater.getBytesRead());
+				}
+				out.flush();
+			} finally {
+				release(deflater, gzip, level);
+				deflater = null;
+			}
+		}
+
+		/**
+		 * Returns the Deflater to the pool without finishing the stream, so that a body which
+		 * failed part way isn't sent with a valid trailer.
+		 */
+		void abandon() {
+			if (deflater != null) {
+				release(deflater, gzip, level);
+				deflater = null;
+			}
+		}
+
+		private void writeIntLE(int i) throws IOException {
+			out.write(i);
+			out.write(i >>> 8);
+			out.write(i >>> 16);
+			out.write(i >>> 24);
+		}
+	}
+}
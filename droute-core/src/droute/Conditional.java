@@ -0,0 +1,150 @@
+package droute;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Middleware which answers conditional GET and HEAD requests. Responses are given a strong
+ * ETag if they don't have one, hashed from the body, and a request whose If-None-Match or
+ * If-Modified-Since shows the client already has the current version is answered with a
+ * bodyless 304 Not Modified.
+ *
+ * Hashing needs the whole body in memory, so String and byte[] bodies are hashed as they
+ * are, InputStream bodies and Streamable bodies with a Content-Length are buffered up to the
+ * limit, and bodies of any other kind are passed through untouched. An InputStream found to
+ * be over the limit is sent without an ETag, replaying what was read. A Streamable without a
+ * Content-Length can't be hashed without being produced twice, so it is sent as it is; give
+ * such handlers a Validator to have them answered with 304s.
+ */
+public class Conditional {
+	private static final int DEFAULT_BUFFER_LIMIT = 1024 * 1024;
+	private static final String[] NOT_MODIFIED_HEADERS = {"Cache-Control", "Content-Location", "Date", "ETag",
+			"Expires", "Last-Modified", "Vary", "Set-Cookie"};
+
+	/**
+	 * Supplies the current ETag of the resource a request is for, when that can be found
+	 * more cheaply than by running the handler, such as from a version column.
+	 */
+	public interface Validator {
+		/**
+		 * Returns the current strong ETag, including quotes, or null if it is not known.
+		 */
+		String etag(Request request);
+	}
+
+	private Conditional() {}
+
+	public static Handler wrap(Handler handler) {
+		return wrap(handler, null, DEFAULT_BUFFER_LIMIT);
+	}
+
+	/**
+	 * Consults validator before the handler runs, answering 304 without running it at all
+	 * when the client's copy is current.
+	 */
+	public static Handler wrap(Handler handler, Validator validator) {
+		return wrap(handler, validator, DEFAULT_BUFFER_LIMIT);
+	}
+
+	public static Handler wrap(Handler handler, Validator validator, int bufferLimit) {
+		return request -> {
+			boolean conditional = request.method().equals("GET") || request.method().equals("HEAD");
+			if (!conditional) {
+				return handler.handle(request);
+			}
+			String etag = validator == null ? null : validator.etag(request);
+			if (etag != null && matches(request.header("If-None-Match"), etag)) {
+				return notModified(Response.response(200, null).withHeader("ETag", etag));
+			}
+			Response response = handler.handle(request);
+			if (response == Response.NEXT_HANDLER || response.status() != 200) {
+				return response;
+			}
+			if (response.header("ETag") == null) {
+				if (etag == null) {
+					Bodies.Buffered buffered = Bodies.buffer(response.body(), Bodies.contentLength(response), bufferLimit);
+					if (buffered.bytes == null) {
+						return check(request, Bodies.unbuffered(response, buffered));
+					}
+					etag = Bodies.etag(buffered.bytes);
+					if (buffered.bytes != response.body() && !(response.body() instanceof String)) {
+						response = response.withBody(buffered.bytes);
+					}
+				}
+				response = response.withHeader("ETag", etag);
+			}
+			return check(request, response);
+		};
+	}
+
+	/**
+	 * Returns 304 Not Modified if the request's validators match the response.
+	 */
+	static Response check(Request request, Response response) {
+		String ifNoneMatch = request.header("If-None-Match");
+		if (ifNoneMatch != null) {
+			String etag = response.header("ETag");
+			return etag != null && matches(ifNoneMatch, etag) ? notModified(response) : response;
+		}
+		String ifModifiedSince = request.header("If-Modified-Since");
+		String lastModified = response.header("Last-Modified");
+		if (ifModifiedSince != null && lastModified != null) {
+			long since = parseDate(ifModifiedSince);
+			long modified = parseDate(lastModified);
+			if (since >= 0 && modified >= 0 && modified <= since) {
+				return notModified(response);
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * True if an If-None-Match header lists etag or is "*". Entity tags are compared weakly,
+	 * as RFC 7232 specifies for If-None-Match.
+	 */
+	static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		} else if (ifNoneMatch.trim().equals("*")) {
+			return true;
+		}
+		String opaque = opaque(etag);
+		int start = 0;
+		int n = ifNoneMatch.length();
+		while (start < n) {
+			int end = ifNoneMatch.indexOf(',', start);
+			if (end < 0) {
+				end = n;
+			}
+			if (opaque(ifNoneMatch.substring(start, end).trim()).equals(opaque)) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
+	private static String opaque(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+	private static long parseDate(String date) {
+		try {
+			return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	private static Response notModified(Response response) {
+		Headers.Builder headers = Headers.builder();
+		for (String name : NOT_MODIFIED_HEADERS) {
+			String value = response.header(name);
+			if (value != null) {
+				headers.set(name, value);
+			}
+		}
+		return Response.response(304, headers.build(), null);
+	}
+}
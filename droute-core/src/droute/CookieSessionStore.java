@@ -0,0 +1,254 @@
+package droute;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps sessions in the session cookie itself, so that any server holding the secret can
+ * serve any request without a lookup. The session data is stamped with the time it was
+ * issued and either signed with HMAC-SHA256 or encrypted with AES-GCM, which also
+ * authenticates it.
+ *
+ * Sessions expire maxAge after they were last changed. As nothing is kept on the server a
+ * deleted session cookie remains valid until then if a copy was kept, so sessions that must
+ * be revocable need a server-side store.
+ *
+ * Keys are rotated by passing the new secret first followed by the secrets still accepted.
+ * Each cookie starts with a byte identifying the secret used.
+ *
+ * Cookies are limited to 4000 characters, so a session holds about 2.9KB of data, which
+ * Session.set() checks so that handlers can react to oversized values.
+ */
+public class CookieSessionStore implements SessionStore {
+	private static final int MAC_LENGTH = 32;
+	private static final int IV_LENGTH = 12;
+	private static final int TAG_BITS = 128;
+	private static final int MAX_COOKIE_LENGTH = 4000;
+
+	private static final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+
+	private final Key[] keys;
+	private final boolean encrypt;
+	private final long maxAgeMillis;
+
+	/**
+	 * Creates a store of signed but readable cookies.
+	 */
+	public static CookieSessionStore signed(Duration maxAge, byte[] secret, byte[]... previousSecrets) {
+		return new CookieSessionStore(false, maxAge, secret, previousSecrets);
+	}
+
+	/**
+	 * Creates a store of encrypted cookies whose contents the client can't read.
+	 */
+	public static CookieSessionStore encrypted(Duration maxAge, byte[] secret, byte[]... previousSecrets) {
+		return new CookieSessionStore(true, maxAge, secret, previousSecrets);
+	}
+
+	private CookieSessionStore(boolean encrypt, Duration maxAge, byte[] secret, byte[]... previousSecrets) {
+		this.encrypt = encrypt;
+		this.maxAgeMillis = maxAge.toMillis();
+		keys = new Key[previousSecrets.length + 1];
+		keys[0] = new Key(secret);
+		for (int i = 0; i < previousSecrets.length; i++) {
+			keys[i + 1] = new Key(previousSecrets[i]);
+		}
+	}
+
+	@Override
+	public Map<String,String> load(String cookie) {
+		byte[] bytes;
+		try {
+			bytes = Base64.getUrlDecoder().decode(cookie);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (bytes.length < 1 + (encrypt ? IV_LENGTH + TAG_BITS / 8 : MAC_LENGTH) + 8) {
+			return null;
+		}
+		for (Key key : keys) {
+			if (key.id == bytes[0]) {
+				byte[] plain = encrypt ? key.decrypt(bytes) : key.verify(bytes);
+				if (plain != null) {
+					return decode(plain, encrypt ? 0 : 1, plain.length - (encrypt ? 0 : 1 + MAC_LENGTH));
+				}
+			}
+		}
+		return null;
+	}
+
+	private Map<String,String> decode(byte[] bytes, int offset, int length) {
+		long issuedAt = 0;
+		for (int i = 0; i < 8; i++) {
+			issuedAt = issuedAt << 8 | (bytes[offset + i] & 0xff);
+		}
+		long age = System.currentTimeMillis() - issuedAt;
+		if (age < 0 || age > maxAgeMillis) {
+			return null;
+		}
+		return SessionCodec.decode(bytes, offset + 8, length - 8);
+	}
+
+	/**
+	 * Returns the cookie value holding data. The id is not used.
+	 */
+	@Override
+	public String save(String id, Map<String,String> data) {
+		// also checked against maxDataSize() when values are set, so this only fails for
+		// data that didn't come through a Session
+		byte[] encoded = SessionCodec.encode(data);
+		byte[] payload = new byte[8 + encoded.length];
+		long issuedAt = System.currentTimeMillis();
+		for (int i = 7; i >= 0; i--) {
+			payload[i] = (byte) issuedAt;
+			issuedAt >>>= 8;
+		}
+		System.arraycopy(encoded, 0, payload, 8, encoded.length);
+		byte[] bytes = encrypt ? keys[0].encrypt(payload) : keys[0].sign(payload);
+		String cookie = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		if (cookie.length() > MAX_COOKIE_LENGTH) {
+			throw new IllegalArgumentException("session data is too large for a cookie (" + cookie.length() + " characters)");
+		}
+		return cookie;
+	}
+
+	/**
+	 * The most data that fits in a cookie once stamped, sealed and Base64 encoded.
+	 */
+	@Override
+	public int maxDataSize() {
+		int sealed = MAX_COOKIE_LENGTH / 4 * 3;
+		return sealed - 1 - 8 - (encrypt ? IV_LENGTH + TAG_BITS / 8 : MAC_LENGTH);
+	}
+
+	/**
+	 * Does nothing as the session only exists in the cookie, which Sessions expires.
+	 */
+	@Override
+	public void delete(String id) {
+	}
+
+	private static byte[] hmac(byte[] key, String label) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			return mac.doFinal(label.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A secret and the keys derived from it, with Mac and Cipher instances kept per thread
+	 * as they are costly to look up and not thread-safe.
+	 */
+	private static class Key {
+		final byte id;
+		final SecretKeySpec macKey;
+		final SecretKeySpec cipherKey;
+		final ThreadLocal<Mac> mac;
+		final ThreadLocal<Cipher> cipher;
+
+		Key(byte[] secret) {
+			if (secret.length < 16) {
+				throw new IllegalArgumentException("secrets must be at least 16 bytes");
+			}
+			id = hmac(secret, "droute session key id")[0];
+			macKey = new SecretKeySpec(hmac(secret, "droute session mac"), "HmacSHA256");
+			byte[] aes = hmac(secret, "droute session cipher");
+			cipherKey = new SecretKeySpec(aes, 0, 16, "AES");
+			mac = ThreadLocal.withInitial(() -> {
+				try {
+					Mac mac = Mac.getInstance("HmacSHA256");
+					mac.init(macKey);
+					return mac;
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			cipher = ThreadLocal.withInitial(() -> {
+				try {
+					return Cipher.getInstance("AES/GCM/NoPadding");
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+		}
+
+		/**
+		 * Returns id byte, payload, HMAC of both.
+		 */
+		byte[] sign(byte[] payload) {
+			byte[] out = new byte[1 + payload.length + MAC_LENGTH];
+			out[0] = id;
+			System.arraycopy(payload, 0, out, 1, payload.length);
+			Mac mac = this.mac.get();
+			mac.update(out, 0, 1 + payload.length);
+			try {
+				mac.doFinal(out, 1 + payload.length);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+			return out;
+		}
+
+		/**
+		 * Returns bytes if its HMAC is correct, otherwise null.
+		 */
+		byte[] verify(byte[] bytes) {
+			int length = bytes.length - MAC_LENGTH;
+			Mac mac = this.mac.get();
+			mac.update(bytes, 0, length);
+			byte[] expected = mac.doFinal();
+			int diff = 0;
+			for (int i = 0; i < MAC_LENGTH; i++) {
+				diff |= expected[i] ^ bytes[length + i];
+			}
+			return diff == 0 ? bytes : null;
+		}
+
+		/**
+		 * Returns id byte, IV, ciphertext and tag, with the id byte authenticated.
+		 */
+		byte[] encrypt(byte[] payload) {
+			try {
+				Cipher cipher = this.cipher.get();
+				byte[] out = new byte[1 + IV_LENGTH + payload.length + TAG_BITS / 8];
+				out[0] = id;
+				byte[] iv = new byte[IV_LENGTH];
+				random.get().nextBytes(iv);
+				System.arraycopy(iv, 0, out, 1, IV_LENGTH);
+				cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new GCMParameterSpec(TAG_BITS, iv));
+				cipher.updateAAD(out, 0, 1);
+				cipher.doFinal(payload, 0, payload.length, out, 1 + IV_LENGTH);
+				return out;
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Returns the payload, or null if the cookie was not encrypted with this key or has
+		 * been tampered with.
+		 */
+		byte[] decrypt(byte[] bytes) {
+			try {
+				Cipher cipher = this.cipher.get();
+				cipher.init(Cipher.DECRYPT_MODE, cipherKey, new GCMParameterSpec(TAG_BITS, bytes, 1, IV_LENGTH));
+				cipher.updateAAD(bytes, 0, 1);
+				return cipher.doFinal(bytes, 1 + IV_LENGTH, bytes.length - 1 - IV_LENGTH);
+			} catch (GeneralSecurityException e) {
+				return null;
+			}
+		}
+	}
+}
@@ -3,52 +3,46 @@ package droute;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Cookies {
 	private static final String COOKIE_NAME = "[^\\p{Cntrl}()<>@,;:\\\\\"/\\[\\]?={} \t]+";
 	private static final Pattern RE_COOKIE_NAME = Pattern.compile(COOKIE_NAME);
-	private static final String COOKIE_OCTET = "[\\x21\\x23-\\x2B\\x2D-\\x3A\\x3C-\\x5B\\x5D-\\x7E]";
-	private static final String COOKIE_VALUE = "(?:(" + COOKIE_OCTET + "*)|\"(" + COOKIE_OCTET + "*)\")";
-	private static final Pattern RE_COOKIE_PAIR = Pattern.compile("(" + COOKIE_NAME + ")=" + COOKIE_VALUE);
 		
 	public static Map<String,String> parse(String cookieHeader) {
-		Map<String,String> cookies = new HashMap<String,String>();
-		if (cookieHeader != null) {
-			String pairs[] = cookieHeader.split("; ");
-			for (String pair : pairs) {
-				Matcher m = RE_COOKIE_PAIR.matcher(pair);
-				if (m.matches()) {
-					String name = m.group(1);
-					String value = m.group(2);
-					if (value == null) {
-						value = m.group(3);
-					}
-					try {
-						cookies.put(name, URLDecoder.decode(value, "UTF-8"));
-					} catch (UnsupportedEncodingException e) {
-						throw new RuntimeException(e);
-					}
-				}
-			}
+		if (cookieHeader == null) {
+			return new HashMap<String,String>();
 		}
-		return cookies;
+		return new Cookies(cookieHeader).toMap();
 	}
 
+	/**
+	 * Returns all cookies sent with the request. The header is scanned once per request and
+	 * the result kept in the request state.
+	 */
 	public static Map<String,String> parse(Request request) {
+		return of(request).toMap();
+	}
+
+	/**
+	 * Returns a single cookie from the request, or null if it was not sent. Only the value of
+	 * the named cookie is decoded.
+	 */
+	public static String get(Request request, String cookieName) {
+		return of(request).get(cookieName);
+	}
+
+	private static Cookies of(Request request) {
 		Cookies state = request.state(Cookies.class);
 		if (state == null) {
-			state = new Cookies(parse(request.header("Cookie")));
+			String header = request.header("Cookie");
+			state = new Cookies(header == null ? "" : header);
 			request.setState(state);
 		}
-		return state.cookies;
-	}
-	
-	public static String get(Request request, String cookieName) {
-		return parse(request).get(cookieName);
+		return state;
 	}
 		
 	public static String encode(String name, String value, CookieAttribute... attributes) {
@@ -139,9 +133,157 @@ public class Cookies {
 		}
 	}
 	
-	final Map<String,String> cookies;
-	
-	private Cookies(Map<String, String> cookies) {
-		this.cookies = cookies;
+	private final String header;
+	/**
+	 * Four entries per cookie: name start, name end, value start and value end in header.
+	 */
+	private int[] offsets = new int[16];
+	private int count;
+	private String[] values;
+	private Map<String,String> cookies;
+
+	/**
+	 * Scans a Cookie header in a single pass, recording where each name and value lies
+	 * rather than copying them out. Pairs that aren't valid cookies are skipped.
+	 */
+	private Cookies(String header) {
+		this.header = header;
+		int n = header.length();
+		int i = 0;
+		while (i < n) {
+			while (i < n && isSpace(header.charAt(i))) {
+				i++;
+			}
+			int nameStart = i;
+			while (i < n && isNameChar(header.charAt(i))) {
+				i++;
+			}
+			int nameEnd = i;
+			int valueStart = 0;
+			int valueEnd = 0;
+			boolean valid = nameEnd > nameStart && i < n && header.charAt(i) == '=';
+			if (valid) {
+				i++;
+				boolean quoted = i < n && header.charAt(i) == '"';
+				if (quoted) {
+					i++;
+				}
+				valueStart = i;
+				while (i < n && isValueChar(header.charAt(i))) {
+					i++;
+				}
+				valueEnd = i;
+				if (quoted) {
+					if (i < n && header.charAt(i) == '"') {
+						i++;
+					} else {
+						valid = false;
+					}
+				}
+				while (i < n && isSpace(header.charAt(i))) {
+					i++;
+				}
+				valid = valid && (i == n || header.charAt(i) == ';');
+			}
+			while (i < n && header.charAt(i) != ';') {
+				i++;
+			}
+			i++;
+			if (valid) {
+				add(nameStart, nameEnd, valueStart, valueEnd);
+			}
+		}
+	}
+
+	private void add(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+		int pos = count * 4;
+		if (pos == offsets.length) {
+			offsets = Arrays.copyOf(offsets, pos * 2);
+		}
+		offsets[pos] = nameStart;
+		offsets[pos + 1] = nameEnd;
+		offsets[pos + 2] = valueStart;
+		offsets[pos + 3] = valueEnd;
+		count++;
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t';
+	}
+
+	private static boolean isNameChar(char c) {
+		if (c <= 0x20 || c == 0x7f) {
+			return false;
+		}
+		switch (c) {
+		case '(': case ')': case '<': case '>': case '@': case ',': case ';': case ':':
+		case '\\': case '"': case '/': case '[': case ']': case '?': case '=': case '{': case '}':
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	private static boolean isValueChar(char c) {
+		return c >= 0x21 && c <= 0x7e && c != '"' && c != ',' && c != ';' && c != '\\';
+	}
+
+	/**
+	 * Returns the value of the last cookie with the given name, agreeing with the map from
+	 * parse(String) in which later pairs have always overwritten earlier ones. Browsers send
+	 * cookies with longer paths first, so of several cookies sharing a name this is the one
+	 * set for the least specific path.
+	 */
+	String get(String name) {
+		for (int k = count - 1; k >= 0; k--) {
+			int nameStart = offsets[k * 4];
+			int length = offsets[k * 4 + 1] - nameStart;
+			if (length == name.length() && header.regionMatches(nameStart, name, 0, length)) {
+				return value(k);
+			}
+		}
+		return null;
+	}
+
+	private String value(int k) {
+		if (values == null) {
+			values = new String[count];
+		}
+		String value = values[k];
+		if (value == null) {
+			int start = offsets[k * 4 + 2];
+			int end = offsets[k * 4 + 3];
+			value = decode(header, start, end);
+			values[k] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Cuts out a value, only running it through URLDecoder if it has something to decode.
+	 */
+	private static String decode(String header, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = header.charAt(i);
+			if (c == '%' || c == '+') {
+				try {
+					return URLDecoder.decode(header.substring(start, end), "UTF-8");
+				} catch (UnsupportedEncodingException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		return header.substring(start, end);
+	}
+
+	Map<String,String> toMap() {
+		if (cookies == null) {
+			cookies = new HashMap<String,String>();
+			for (int k = 0; k < count; k++) {
+				int nameStart = offsets[k * 4];
+				cookies.put(header.substring(nameStart, offsets[k * 4 + 1]), value(k));
+			}
+		}
+		return cookies;
 	}
 }
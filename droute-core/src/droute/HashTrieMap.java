@@ -0,0 +1,378 @@
+package droute;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A persistent hash array mapped trie. Lookups take O(log32 n) and updates copy only the
+ * path from the root to the changed entry, sharing the rest of the structure with the
+ * original map.
+ *
+ * ArrayMap promotes itself to one of these once it grows large enough that copying and
+ * scanning the whole array becomes expensive. Unlike ArrayMap iteration order is not
+ * insertion order.
+ */
+@SuppressWarnings("unchecked")
+final class HashTrieMap<K, V> extends AbstractMap<K, V> implements PersistentMap<K, V> {
+	private static final HashTrieMap<?, ?> EMPTY = new HashTrieMap<>(BitmapNode.EMPTY, 0);
+
+	/**
+	 * Marks a slot in a node's array whose value is a child node rather than an entry.
+	 */
+	private static final Object CHILD = new Object();
+	private static final Object NOT_FOUND = new Object();
+
+	private final Node root;
+	private final int size;
+
+	private HashTrieMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	public static <K, V> HashTrieMap<K, V> emptyMap() {
+		return (HashTrieMap<K, V>) EMPTY;
+	}
+
+	public static <K, V> HashTrieMap<K, V> copyOf(Map<K, V> map) {
+		HashTrieMap<K, V> result = emptyMap();
+		for (Map.Entry<K, V> entry : map.entrySet()) {
+			result = result.with(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	private static int hash(Object key) {
+		int h = Objects.hashCode(key);
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public HashTrieMap<K, V> with(K key, V value) {
+		boolean[] added = new boolean[1];
+		Node newRoot = root.with(key, value, hash(key), 0, added);
+		if (newRoot == root) {
+			return this;
+		}
+		return new HashTrieMap<>(newRoot, added[0] ? size + 1 : size);
+	}
+
+	@Override
+	public HashTrieMap<K, V> without(K key) {
+		Node newRoot = root.without(key, hash(key), 0);
+		if (newRoot == root) {
+			return this;
+		}
+		return new HashTrieMap<>(newRoot == null ? BitmapNode.EMPTY : newRoot, size - 1);
+	}
+
+	@Override
+	public V get(Object key) {
+		Object value = root.get(key, hash(key), 0);
+		return value == NOT_FOUND ? null : (V) value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return root.get(key, hash(key), 0) != NOT_FOUND;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator<>(root);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public V put(K key, V value) {
+		throw new UnsupportedOperationException("HashTrieMap cannot be modified in place");
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> map) {
+		throw new UnsupportedOperationException("HashTrieMap cannot be modified in place");
+	}
+
+	@Override
+	public V remove(Object key) {
+		throw new UnsupportedOperationException("HashTrieMap cannot be modified in place");
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("HashTrieMap cannot be modified in place");
+	}
+
+	/**
+	 * Trie nodes hold key, value pairs in a flat array. A pair whose key is CHILD holds a
+	 * subtree in place of its value.
+	 */
+	private abstract static class Node {
+		final Object[] array;
+
+		Node(Object[] array) {
+			this.array = array;
+		}
+
+		/**
+		 * Returns the value for key or NOT_FOUND.
+		 */
+		abstract Object get(Object key, int hash, int shift);
+
+		/**
+		 * Returns a node with the entry set, or this node if nothing changed.
+		 */
+		abstract Node with(Object key, Object value, int hash, int shift, boolean[] added);
+
+		/**
+		 * Returns a node with the key removed, this node if the key was absent or null if the
+		 * node is left empty.
+		 */
+		abstract Node without(Object key, int hash, int shift);
+	}
+
+	private static final class BitmapNode extends Node {
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+
+		BitmapNode(int bitmap, Object[] array) {
+			super(array);
+			this.bitmap = bitmap;
+		}
+
+		private static int bit(int hash, int shift) {
+			return 1 << ((hash >>> shift) & 31);
+		}
+
+		private int position(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1)) * 2;
+		}
+
+		@Override
+		Object get(Object key, int hash, int shift) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return NOT_FOUND;
+			}
+			int i = position(bit);
+			Object k = array[i];
+			if (k == CHILD) {
+				return ((Node) array[i + 1]).get(key, hash, shift + 5);
+			}
+			return Objects.equals(key, k) ? array[i + 1] : NOT_FOUND;
+		}
+
+		@Override
+		Node with(Object key, Object value, int hash, int shift, boolean[] added) {
+			int bit = bit(hash, shift);
+			int i = position(bit);
+			if ((bitmap & bit) == 0) {
+				Object[] newArray = new Object[array.length + 2];
+				System.arraycopy(array, 0, newArray, 0, i);
+				newArray[i] = key;
+				newArray[i + 1] = value;
+				System.arraycopy(array, i, newArray, i + 2, array.length - i);
+				added[0] = true;
+				return new BitmapNode(bitmap | bit, newArray);
+			}
+			Object k = array[i];
+			Object v = array[i + 1];
+			if (k == CHILD) {
+				Node child = ((Node) v).with(key, value, hash, shift + 5, added);
+				return child == v ? this : replace(i + 1, child);
+			}
+			if (Objects.equals(key, k)) {
+				return v == value ? this : replace(i + 1, value);
+			}
+			added[0] = true;
+			Node child = pair(k, v, HashTrieMap.hash(k), key, value, hash, shift + 5);
+			Object[] newArray = array.clone();
+			newArray[i] = CHILD;
+			newArray[i + 1] = child;
+			return new BitmapNode(bitmap, newArray);
+		}
+
+		@Override
+		Node without(Object key, int hash, int shift) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int i = position(bit);
+			Object k = array[i];
+			if (k == CHILD) {
+				Node child = (Node) array[i + 1];
+				Node newChild = child.without(key, hash, shift + 5);
+				if (newChild == child) {
+					return this;
+				} else if (newChild != null) {
+					return replace(i + 1, newChild);
+				}
+			} else if (!Objects.equals(key, k)) {
+				return this;
+			}
+			if (bitmap == bit) {
+				return null;
+			}
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, i);
+			System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+			return new BitmapNode(bitmap & ~bit, newArray);
+		}
+
+		private BitmapNode replace(int i, Object value) {
+			Object[] newArray = array.clone();
+			newArray[i] = value;
+			return new BitmapNode(bitmap, newArray);
+		}
+
+		private static Node pair(Object k1, Object v1, int h1, Object k2, Object v2, int h2, int shift) {
+			if (h1 == h2) {
+				return new CollisionNode(h1, new Object[] {k1, v1, k2, v2});
+			}
+			boolean[] added = new boolean[1];
+			return EMPTY.with(k1, v1, h1, shift, added).with(k2, v2, h2, shift, added);
+		}
+	}
+
+	/**
+	 * Holds entries whose keys have identical hashes.
+	 */
+	private static final class CollisionNode extends Node {
+		final int hash;
+
+		CollisionNode(int hash, Object[] array) {
+			super(array);
+			this.hash = hash;
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (Objects.equals(key, array[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Object get(Object key, int hash, int shift) {
+			int i = indexOf(key);
+			return i < 0 ? NOT_FOUND : array[i + 1];
+		}
+
+		@Override
+		Node with(Object key, Object value, int hash, int shift, boolean[] added) {
+			if (hash != this.hash) {
+				BitmapNode parent = new BitmapNode(BitmapNode.bit(this.hash, shift), new Object[] {CHILD, this});
+				return parent.with(key, value, hash, shift, added);
+			}
+			int i = indexOf(key);
+			if (i >= 0) {
+				if (array[i + 1] == value) {
+					return this;
+				}
+				Object[] newArray = array.clone();
+				newArray[i + 1] = value;
+				return new CollisionNode(hash, newArray);
+			}
+			Object[] newArray = new Object[array.length + 2];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			newArray[array.length] = key;
+			newArray[array.length + 1] = value;
+			added[0] = true;
+			return new CollisionNode(hash, newArray);
+		}
+
+		@Override
+		Node without(Object key, int hash, int shift) {
+			int i = indexOf(key);
+			if (i < 0) {
+				return this;
+			}
+			if (array.length == 2) {
+				return null;
+			}
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, i);
+			System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+			return new CollisionNode(hash, newArray);
+		}
+	}
+
+	/**
+	 * Depth-first walk over the trie using an explicit stack of node arrays.
+	 */
+	private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+		private final Object[][] arrays = new Object[10][];
+		private final int[] positions = new int[10];
+		private int depth = 0;
+		private Map.Entry<K, V> next;
+
+		EntryIterator(Node root) {
+			arrays[0] = root.array;
+			advance();
+		}
+
+		private void advance() {
+			while (depth >= 0) {
+				Object[] array = arrays[depth];
+				int i = positions[depth];
+				if (i >= array.length) {
+					depth--;
+					continue;
+				}
+				positions[depth] = i + 2;
+				if (array[i] == CHILD) {
+					depth++;
+					arrays[depth] = ((Node) array[i + 1]).array;
+					positions[depth] = 0;
+				} else {
+					next = new AbstractMap.SimpleImmutableEntry<>((K) array[i], (V) array[i + 1]);
+					return;
+				}
+			}
+			next = null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<K, V> entry = next;
+			advance();
+			return entry;
+		}
+	}
+}
@@ -1,14 +1,49 @@
 package droute;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 /**
  * A Map which is case-insensitive for lookups but preserves both case and order of keys.
+ *
+ * Small header sets are searched linearly. Once there are more than HASH_THRESHOLD headers
+ * an index keyed on the case-folded name hash is built on the first lookup.
  */
 public class Headers extends ArrayMap<String, String> {
 
 	public static final Headers EMPTY = new Headers(new Object[0]);
 
+	private static final int HASH_THRESHOLD = 16;
+
+	/**
+	 * Precomputed case-folded hashes of frequently looked up header names.
+	 */
+	private static final Map<String, Integer> KNOWN_HASHES = new HashMap<>();
+
+	static {
+		String[] names = {
+				"Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Accept-Ranges",
+				"Age", "Authorization", "Cache-Control", "Connection", "Content-Disposition",
+				"Content-Encoding", "Content-Length", "Content-Range", "Content-Type", "Cookie",
+				"Date", "ETag", "Expect", "Expires", "Host", "If-Match", "If-Modified-Since",
+				"If-None-Match", "If-Range", "If-Unmodified-Since", "Last-Modified", "Location",
+				"Origin", "Pragma", "Range", "Referer", "Set-Cookie", "Transfer-Encoding",
+				"User-Agent", "Vary", "X-Csrf-Token", "X-Forwarded-For", "X-Forwarded-Path",
+				"X-Forwarded-Proto", "X-Requested-With"};
+		for (String name : names) {
+			int hash = foldedHash(name);
+			KNOWN_HASHES.put(name, hash);
+			KNOWN_HASHES.put(name.toLowerCase(Locale.ROOT), hash);
+		}
+	}
+
+	/**
+	 * Open-addressing table of key positions in the array plus one, built lazily.
+	 */
+	private volatile int[] index;
+
 	public Headers(Object[] array) {
 		super(array);
 	}
@@ -25,6 +60,9 @@ public class Headers extends ArrayMap<String, String> {
 	protected int indexOf(Object obj) {
 		if (obj instanceof String) {
 			String key = (String) obj;
+			if (array.length > HASH_THRESHOLD * 2) {
+				return indexedLookup(key);
+			}
 			for (int i = 0; i < array.length; i += 2) {
 				Object candidate = array[i];
 				if (candidate instanceof String
@@ -36,6 +74,64 @@ public class Headers extends ArrayMap<String, String> {
 		return -1;
 	}
 
+	private int indexedLookup(String key) {
+		int[] index = this.index;
+		if (index == null) {
+			index = buildIndex();
+			this.index = index;
+		}
+		int mask = index.length - 1;
+		for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			int pos = index[slot] - 1;
+			if (pos < 0) {
+				return -1;
+			}
+			if (key.equalsIgnoreCase((String) array[pos])) {
+				return pos;
+			}
+		}
+	}
+
+	private int[] buildIndex() {
+		int[] index = new int[Integer.highestOneBit(array.length * 2 - 1)];
+		int mask = index.length - 1;
+		for (int i = 0; i < array.length; i += 2) {
+			if (array[i] instanceof String) {
+				int slot = hash((String) array[i]) & mask;
+				while (index[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				index[slot] = i + 1;
+			}
+		}
+		return index;
+	}
+
+	private static int hash(String key) {
+		Integer known = KNOWN_HASHES.get(key);
+		int h = known != null ? known : foldedHash(key);
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * A hash code which is the same for any two strings which are equalsIgnoreCase.
+	 */
+	private static int foldedHash(String s) {
+		int h = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 128) {
+				if (c >= 'A' && c <= 'Z') {
+					c += 'a' - 'A';
+				}
+			} else {
+				c = Character.toLowerCase(Character.toUpperCase(c));
+			}
+			h = 31 * h + c;
+		}
+		return h;
+	}
+
 	@Override
 	public Headers with(String key, String value) {
 		return new Headers(arrayWith(key, value));
@@ -50,4 +146,89 @@ public class Headers extends ArrayMap<String, String> {
 			return new Headers(array);
 		}
 	}
+
+	/**
+	 * Returns a copy with each of the given headers set, copying the backing array once
+	 * rather than once per header.
+	 */
+	public Headers withAll(String... headersAndValues) {
+		if (headersAndValues.length % 2 != 0) {
+			throw new IllegalArgumentException("headersAndValues must have an equal number of headers and values");
+		}
+		Builder builder = toBuilder();
+		for (int i = 0; i < headersAndValues.length; i += 2) {
+			builder.set(headersAndValues[i], headersAndValues[i + 1]);
+		}
+		return builder.build();
+	}
+
+	public static Builder builder() {
+		return new Builder(EMPTY);
+	}
+
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+
+	/**
+	 * Mutable accumulator for headers. Use it when adding several headers, such as from a
+	 * chain of middleware, to avoid copying the whole header array for each one.
+	 */
+	public static class Builder {
+		private Object[] array;
+		private int length;
+
+		Builder(Headers headers) {
+			array = Arrays.copyOf(headers.array, headers.array.length + 8);
+			length = headers.array.length;
+		}
+
+		private int indexOf(String name) {
+			for (int i = 0; i < length; i += 2) {
+				Object candidate = array[i];
+				if (candidate instanceof String && name.equalsIgnoreCase((String) candidate)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		public String get(String name) {
+			int i = indexOf(name);
+			return i >= 0 ? (String) array[i + 1] : null;
+		}
+
+		/**
+		 * Sets a header, replacing the value of any existing header of the same name.
+		 */
+		public Builder set(String name, String value) {
+			int i = indexOf(name);
+			if (i >= 0) {
+				array[i] = name;
+				array[i + 1] = value;
+			} else {
+				if (length == array.length) {
+					array = Arrays.copyOf(array, length * 2);
+				}
+				array[length++] = name;
+				array[length++] = value;
+			}
+			return this;
+		}
+
+		public Builder remove(String name) {
+			int i = indexOf(name);
+			if (i >= 0) {
+				System.arraycopy(array, i + 2, array, i, length - i - 2);
+				length -= 2;
+				array[length] = null;
+				array[length + 1] = null;
+			}
+			return this;
+		}
+
+		public Headers build() {
+			return new Headers(Arrays.copyOf(array, length));
+		}
+	}
 }
@@ -0,0 +1,306 @@
+package droute;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Keeps sessions off the heap in memory-mapped files, so large numbers of sessions don't
+ * burden the garbage collector and sessions survive a restart.
+ *
+ * Sessions are spread over segment files, each an independently locked open-addressing
+ * table of fixed-size slots. A session id hashes to a starting slot and may be stored in any
+ * of the PROBE_WINDOW slots from there. When the whole window is in use the least recently
+ * accessed session in it is replaced, so the store never fills up but may forget old
+ * sessions early under heavy load. Stores are sized for the number of sessions they must
+ * hold, with twice as many slots so that windows rarely fill.
+ *
+ * Ids must be Tokens and session data must encode to no more than maxDataSize bytes, which
+ * Session.set() checks so that handlers can react to oversized values.
+ */
+public class MappedSessionStore implements SessionStore, AutoCloseable {
+	private static final int MAGIC = 0x64534553;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int PROBE_WINDOW = 16;
+	private static final int ID_LENGTH = 20;
+	private static final long MAX_SLOTS_PER_SEGMENT = 1 << 20;
+
+	private static final byte EMPTY = 0;
+	private static final byte USED = 1;
+
+	// slot layout
+	private static final int STATE = 0;
+	private static final int ID = 1;
+	private static final int LAST_ACCESS = ID + ID_LENGTH;
+	private static final int LENGTH = LAST_ACCESS + 8;
+	private static final int DATA = LENGTH + 4;
+
+	private final Segment[] segments;
+	private final int slots;
+	private final int maxDataSize;
+	private final int slotSize;
+	private final long idleTimeoutMillis;
+
+	/**
+	 * Creates a store with room for maxSessions sessions of up to 480 bytes of data, in which
+	 * sessions expire after 30 minutes of inactivity. The segment files take 1KB per session,
+	 * so two million sessions need 2GB of disk and address space, of which only the pages
+	 * in use stay resident.
+	 */
+	public MappedSessionStore(Path directory, int maxSessions) throws IOException {
+		this(directory, segmentsFor(maxSessions), slotsFor(maxSessions), 480, Duration.ofMinutes(30));
+	}
+
+	private static int segmentsFor(int maxSessions) {
+		return (int) Math.max(16, (2L * maxSessions + MAX_SLOTS_PER_SEGMENT - 1) / MAX_SLOTS_PER_SEGMENT);
+	}
+
+	private static int slotsFor(int maxSessions) {
+		int segments = segmentsFor(maxSessions);
+		return (int) Math.max(PROBE_WINDOW, (2L * maxSessions + segments - 1) / segments);
+	}
+
+	public MappedSessionStore(Path directory, int segmentCount, int slotsPerSegment, int maxDataSize, Duration idleTimeout) throws IOException {
+		if (segmentCount <= 0 || slotsPerSegment < PROBE_WINDOW || maxDataSize <= 0) {
+			throw new IllegalArgumentException("need at least one segment of " + PROBE_WINDOW + " slots");
+		}
+		this.slots = slotsPerSegment;
+		this.maxDataSize = maxDataSize;
+		this.slotSize = (DATA + maxDataSize + 7) & ~7;
+		if ((long) slotSize * slots + HEADER_SIZE > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("segments can't be larger than 2GB");
+		}
+		this.idleTimeoutMillis = idleTimeout.toMillis();
+		Files.createDirectories(directory);
+		segments = new Segment[segmentCount];
+		try {
+			for (int i = 0; i < segmentCount; i++) {
+				segments[i] = new Segment(directory.resolve("sessions-" + i + ".dat"));
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private static int hash(String id) {
+		int h = id.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[Math.floorMod(hash, segments.length)];
+	}
+
+	@Override
+	public Map<String,String> load(String id) {
+		if (!Tokens.isSane(id)) {
+			return null;
+		}
+		int hash = hash(id);
+		Segment segment = segmentFor(hash);
+		long now = System.currentTimeMillis();
+		synchronized (segment) {
+			int slot = segment.find(id, hash);
+			if (slot < 0) {
+				return null;
+			}
+			MappedByteBuffer buffer = segment.buffer;
+			if (now - buffer.getLong(slot + LAST_ACCESS) > idleTimeoutMillis) {
+				buffer.put(slot + STATE, EMPTY);
+				return null;
+			}
+			buffer.putLong(slot + LAST_ACCESS, now);
+			int length = buffer.getInt(slot + LENGTH);
+			if (length < 0 || length > maxDataSize) {
+				buffer.put(slot + STATE, EMPTY);
+				return null;
+			}
+			byte[] data = new byte[length];
+			ByteBuffer view = buffer.duplicate();
+			view.position(slot + DATA);
+			view.get(data);
+			return SessionCodec.decode(data, 0, length);
+		}
+	}
+
+	@Override
+	public int maxDataSize() {
+		return maxDataSize;
+	}
+
+	@Override
+	public String save(String id, Map<String,String> data) {
+		if (!Tokens.isSane(id)) {
+			throw new IllegalArgumentException("invalid session id");
+		}
+		byte[] bytes = SessionCodec.encode(data);
+		if (bytes.length > maxDataSize) {
+			throw new IllegalArgumentException("session data is " + bytes.length + " bytes, the limit is " + maxDataSize);
+		}
+		int hash = hash(id);
+		Segment segment = segmentFor(hash);
+		long now = System.currentTimeMillis();
+		synchronized (segment) {
+			int slot = segment.find(id, hash);
+			if (slot < 0) {
+				slot = segment.victim(hash, now - idleTimeoutMillis);
+			}
+			MappedByteBuffer buffer = segment.buffer;
+			buffer.put(slot + STATE, EMPTY);
+			for (int i = 0; i < ID_LENGTH; i++) {
+				buffer.put(slot + ID + i, (byte) id.charAt(i));
+			}
+			buffer.putLong(slot + LAST_ACCESS, now);
+			buffer.putInt(slot + LENGTH, bytes.length);
+			ByteBuffer view = buffer.duplicate();
+			view.position(slot + DATA);
+			view.put(bytes);
+			buffer.put(slot + STATE, USED);
+		}
+		return id;
+	}
+
+	@Override
+	public void delete(String id) {
+		if (!Tokens.isSane(id)) {
+			return;
+		}
+		int hash = hash(id);
+		Segment segment = segmentFor(hash);
+		synchronized (segment) {
+			int slot = segment.find(id, hash);
+			if (slot >= 0) {
+				segment.buffer.put(slot + STATE, EMPTY);
+			}
+		}
+	}
+
+	/**
+	 * Flushes the segments to disk and releases their files.
+	 */
+	@Override
+	public void close() {
+		IOException error = null;
+		for (Segment segment : segments) {
+			if (segment != null) {
+				synchronized (segment) {
+					try {
+						segment.close();
+					} catch (IOException e) {
+						error = e;
+					}
+				}
+			}
+		}
+		if (error != null) {
+			throw new UncheckedIOException(error);
+		}
+	}
+
+	private class Segment {
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+
+		Segment(Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			long size = HEADER_SIZE + (long) slotSize * slots;
+			MappedByteBuffer buffer;
+			try {
+				boolean sized = channel.size() == size;
+				if (!sized) {
+					// mapping past the end fills with zeros, leaving every slot EMPTY without
+					// touching each page
+					channel.truncate(0);
+				}
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				boolean reuse = sized && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+						&& buffer.getInt(8) == slots && buffer.getInt(12) == maxDataSize;
+				if (!reuse) {
+					if (sized) {
+						for (int i = 0; i < slots; i++) {
+							buffer.put(offset(i) + STATE, EMPTY);
+						}
+					}
+					buffer.putInt(0, MAGIC);
+					buffer.putInt(4, VERSION);
+					buffer.putInt(8, slots);
+					buffer.putInt(12, maxDataSize);
+				}
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+			this.buffer = buffer;
+		}
+
+		int offset(int slot) {
+			return HEADER_SIZE + slot * slotSize;
+		}
+
+		int start(int hash) {
+			return Math.floorMod(Integer.rotateRight(hash, 16) * 0x9E3779B9, slots);
+		}
+
+		/**
+		 * Returns the offset of the slot holding id, or -1.
+		 */
+		int find(String id, int hash) {
+			int start = start(hash);
+			for (int i = 0; i < PROBE_WINDOW; i++) {
+				int slot = offset((start + i) % slots);
+				if (buffer.get(slot + STATE) == USED && idMatches(slot, id)) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		private boolean idMatches(int slot, String id) {
+			for (int i = 0; i < ID_LENGTH; i++) {
+				if (buffer.get(slot + ID + i) != id.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Picks a slot in the probe window for a new session: an empty or expired one if
+		 * there is one, otherwise the least recently accessed.
+		 */
+		int victim(int hash, long cutoff) {
+			int start = start(hash);
+			int oldest = -1;
+			long oldestAccess = Long.MAX_VALUE;
+			for (int i = 0; i < PROBE_WINDOW; i++) {
+				int slot = offset((start + i) % slots);
+				if (buffer.get(slot + STATE) != USED) {
+					return slot;
+				}
+				long lastAccess = buffer.getLong(slot + LAST_ACCESS);
+				if (lastAccess < cutoff) {
+					return slot;
+				}
+				if (lastAccess < oldestAccess) {
+					oldest = slot;
+					oldestAccess = lastAccess;
+				}
+			}
+			return oldest;
+		}
+
+		void close() throws IOException {
+			buffer.force();
+			channel.close();
+		}
+	}
+}
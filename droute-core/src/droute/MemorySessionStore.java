@@ -0,0 +1,129 @@
+package droute;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps sessions on the heap. Sessions are spread over independently locked segments, each
+ * kept in access order so that sessions idle for longer than the timeout, or the least
+ * recently used once a segment is full, can be dropped from its head.
+ */
+public class MemorySessionStore implements SessionStore {
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final long idleTimeoutMillis;
+
+	/**
+	 * Creates a store holding up to 100,000 sessions which expire after 30 minutes of
+	 * inactivity.
+	 */
+	public MemorySessionStore() {
+		this(Duration.ofMinutes(30), 100_000);
+	}
+
+	public MemorySessionStore(Duration idleTimeout, int maxSessions) {
+		if (maxSessions <= 0) {
+			throw new IllegalArgumentException("maxSessions must be positive");
+		}
+		this.idleTimeoutMillis = idleTimeout.toMillis();
+		int perSegment = (maxSessions + SEGMENTS - 1) / SEGMENTS;
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(perSegment);
+		}
+	}
+
+	private Segment segmentFor(String id) {
+		int h = id.hashCode();
+		return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+	}
+
+	@Override
+	public Map<String,String> load(String id) {
+		Segment segment = segmentFor(id);
+		long now = System.currentTimeMillis();
+		synchronized (segment) {
+			Entry entry = segment.get(id);
+			if (entry == null) {
+				return null;
+			}
+			if (now - entry.lastAccess > idleTimeoutMillis) {
+				segment.remove(id);
+				return null;
+			}
+			entry.lastAccess = now;
+			return entry.data;
+		}
+	}
+
+	@Override
+	public String save(String id, Map<String,String> data) {
+		Segment segment = segmentFor(id);
+		long now = System.currentTimeMillis();
+		synchronized (segment) {
+			segment.put(id, new Entry(data, now));
+			segment.expire(now - idleTimeoutMillis);
+		}
+		return id;
+	}
+
+	@Override
+	public void delete(String id) {
+		Segment segment = segmentFor(id);
+		synchronized (segment) {
+			segment.remove(id);
+		}
+	}
+
+	/**
+	 * The number of sessions currently held, including any that have expired but not yet
+	 * been evicted.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	private static class Entry {
+		final Map<String,String> data;
+		long lastAccess;
+
+		Entry(Map<String,String> data, long lastAccess) {
+			this.data = data;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class Segment extends LinkedHashMap<String, Entry> {
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > capacity;
+		}
+
+		/**
+		 * Removes sessions last used before the cutoff. As the map is in access order they
+		 * are all at the head.
+		 */
+		void expire(long cutoff) {
+			Iterator<Entry> it = values().iterator();
+			while (it.hasNext() && it.next().lastAccess < cutoff) {
+				it.remove();
+			}
+		}
+	}
+}
@@ -1,38 +1,334 @@
 package droute;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
 
-public class MultiMap extends HashMap<String, List<String>> {
+/**
+ * A map of keys to lists of values, such as request parameters.
+ *
+ * Keys and values are kept in flat arrays in insertion order. As nearly every key has only
+ * one value it is stored bare and a list is only allocated once a second value is added or
+ * the list itself is asked for. Small maps are searched linearly, a hash index is built once
+ * the map grows beyond HASH_THRESHOLD keys.
+ *
+ * Unlike earlier versions this is not a HashMap. It is still Serializable and Cloneable, but
+ * code that needs a HashMap itself should copy it with {@code new HashMap<>(multiMap)}.
+ */
+public class MultiMap extends AbstractMap<String, List<String>> implements Serializable, Cloneable {
+    private static final long serialVersionUID = 1L;
+    private static final int HASH_THRESHOLD = 8;
+    private static final int INITIAL_CAPACITY = 4;
+
+    private String[] keys;
+    /**
+     * Each slot holds either a single String value or a List of values.
+     */
+    private Object[] values;
+    private int size;
+    /**
+     * Open-addressing table of key positions plus one, null while the map is small.
+     */
+    private transient int[] index;
 
     public void put(String key, String value) {
-        List<String> list = get(key);
-        if (list == null) {
-            list = new ArrayList<>();
-            put (key, list);
+        int i = indexOf(key);
+        if (i < 0) {
+            append(key, value);
+        } else {
+            listAt(i).add(value);
+        }
+    }
+
+    @Override
+    public List<String> put(String key, List<String> list) {
+        int i = indexOf(key);
+        if (i < 0) {
+            append(key, list);
+            return null;
         }
-        list.add(value);
+        List<String> previous = listAt(i);
+        values[i] = list;
+        return previous;
     }
 
     @Override
     public void putAll(Map<? extends String, ? extends List<String>> m) {
         for (Entry<? extends String, ? extends List<String>> entry : m.entrySet()) {
-            List<String> list = get(entry.getKey());
-            if (list != null) {
-                list.addAll(entry.getValue());
+            List<String> list = entry.getValue();
+            int i = indexOf(entry.getKey());
+            if (i >= 0) {
+                listAt(i).addAll(list);
+            } else if (list.size() == 1) {
+                append(entry.getKey(), list.get(0));
             } else {
-                put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+                append(entry.getKey(), new ArrayList<String>(list));
             }
         }
     }
 
     public String getFirst(String key) {
-        List<String> list = get(key);
-        if (list != null && !list.isEmpty()) {
-            return list.get(0);
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
         }
-        return null;
+        Object value = values[i];
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            return list.isEmpty() ? null : (String) list.get(0);
+        }
+        return (String) value;
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : listAt(i);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public List<String> remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        List<String> previous = listAt(i);
+        removeAt(i);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        keys = null;
+        values = null;
+        index = null;
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        return new AbstractSet<Entry<String, List<String>>>() {
+            @Override
+            public Iterator<Entry<String, List<String>>> iterator() {
+                return new Iterator<Entry<String, List<String>>>() {
+                    int next = 0;
+                    int last = -1;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, List<String>> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        last = next++;
+                        final int pos = last;
+                        final String key = keys[pos];
+                        return new Entry<String, List<String>>() {
+                            @Override
+                            public String getKey() {
+                                return key;
+                            }
+
+                            @Override
+                            public List<String> getValue() {
+                                return get(key);
+                            }
+
+                            @Override
+                            public List<String> setValue(List<String> value) {
+                                return put(key, value);
+                            }
+
+                            @Override
+                            public boolean equals(Object o) {
+                                if (!(o instanceof Entry)) {
+                                    return false;
+                                }
+                                Entry<?, ?> e = (Entry<?, ?>) o;
+                                return Objects.equals(key, e.getKey()) && Objects.equals(getValue(), e.getValue());
+                            }
+
+                            @Override
+                            public int hashCode() {
+                                return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+                            }
+
+                            @Override
+                            public String toString() {
+                                return key + "=" + getValue();
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last < 0) {
+                            throw new IllegalStateException();
+                        }
+                        removeAt(last);
+                        next = last;
+                        last = -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of this map. Unlike HashMap.clone() the value lists are copied too, so
+     * adding values to either map doesn't affect the other.
+     */
+    @Override
+    public MultiMap clone() {
+        MultiMap clone;
+        try {
+            clone = (MultiMap) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        if (keys != null) {
+            clone.keys = keys.clone();
+            clone.values = values.clone();
+            for (int i = 0; i < size; i++) {
+                if (values[i] instanceof List) {
+                    clone.values[i] = new ArrayList<Object>((List<?>) values[i]);
+                }
+            }
+        }
+        if (index != null) {
+            clone.index = index.clone();
+        }
+        return clone;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (size > HASH_THRESHOLD) {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Returns the values of the key at position i as a list, replacing a bare value with a
+     * list so that changes made through it are visible in the map.
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> listAt(int i) {
+        Object value = values[i];
+        if (value instanceof List) {
+            return (List<String>) value;
+        }
+        List<String> list = new ArrayList<>(2);
+        list.add((String) value);
+        values[i] = list;
+        return list;
+    }
+
+    private int indexOf(Object key) {
+        if (index != null) {
+            int mask = index.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                int pos = index[slot] - 1;
+                if (pos < 0) {
+                    return -1;
+                }
+                if (Objects.equals(key, keys[pos])) {
+                    return pos;
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (Objects.equals(key, keys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void append(String key, Object value) {
+        if (keys == null) {
+            keys = new String[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+        } else if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        if (index != null && size * 2 <= index.length) {
+            insertIndex(size - 1);
+        } else if (size > HASH_THRESHOLD) {
+            rebuildIndex();
+        }
+    }
+
+    private void removeAt(int i) {
+        int tail = size - i - 1;
+        System.arraycopy(keys, i + 1, keys, i, tail);
+        System.arraycopy(values, i + 1, values, i, tail);
+        size--;
+        keys[size] = null;
+        values[size] = null;
+        if (size > HASH_THRESHOLD) {
+            rebuildIndex();
+        } else {
+            index = null;
+        }
+    }
+
+    private void rebuildIndex() {
+        index = new int[Integer.highestOneBit(size * 4 - 1)];
+        for (int i = 0; i < size; i++) {
+            insertIndex(i);
+        }
+    }
+
+    private void insertIndex(int pos) {
+        int mask = index.length - 1;
+        int slot = hash(keys[pos]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = pos + 1;
+    }
+
+    private static int hash(Object key) {
+        int h = Objects.hashCode(key);
+        return h ^ (h >>> 16);
     }
 }
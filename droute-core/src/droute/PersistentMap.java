@@ -0,0 +1,34 @@
+package droute;
+
+import java.util.Map;
+
+/**
+ * An immutable map whose updates return a modified copy, leaving the original untouched.
+ *
+ * Maps made here start out as a flat array, which is cheapest while small, and turn into a
+ * hash array mapped trie once with() grows them past a handful of entries, so request-scoped
+ * maps built up to hundreds of entries keep logarithmic lookups and updates which share
+ * structure with the map they were made from.
+ */
+public interface PersistentMap<K, V> extends Map<K, V> {
+
+	static <K, V> PersistentMap<K, V> empty() {
+		return ArrayMap.emptyMap();
+	}
+
+	static <K, V> PersistentMap<K, V> of(Object... keysAndValues) {
+		ArrayMap<K, V> map = ArrayMap.of(keysAndValues.clone());
+		return keysAndValues.length / 2 > ArrayMap.PROMOTE_THRESHOLD ? HashTrieMap.copyOf(map) : map;
+	}
+
+	static <K, V> PersistentMap<K, V> copyOf(Map<K, V> map) {
+		if (map instanceof HashTrieMap || map.getClass() == ArrayMap.class) {
+			return (PersistentMap<K, V>) map;
+		}
+		return map.size() > ArrayMap.PROMOTE_THRESHOLD ? HashTrieMap.copyOf(map) : new ArrayMap<>(map);
+	}
+
+	PersistentMap<K, V> with(K key, V value);
+
+	PersistentMap<K, V> without(K key);
+}
@@ -0,0 +1,244 @@
+package droute;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Middleware which answers Range requests for byte[], String, Path and FileChannel bodies
+ * with 206 Partial Content, sending only the requested bytes. Several ranges are sent as
+ * multipart/byteranges, and a request whose If-Range no longer matches gets the whole body.
+ * A FileChannel body stands for the whole file, whatever its position, and is closed once
+ * the ranges have been sent.
+ *
+ * File slices are copied with FileChannel.transferTo. The servers write to blocking output
+ * streams, so the JDK still copies through a buffer, but only the requested part of the file
+ * is read.
+ */
+public class Ranges {
+	private static final int MAX_RANGES = 16;
+
+	private Ranges() {}
+
+	public static Handler wrap(Handler handler) {
+		return request -> {
+			Response response = handler.handle(request);
+			if (response == Response.NEXT_HANDLER || response.status() != 200
+					|| !(request.method().equals("GET") || request.method().equals("HEAD"))) {
+				return response;
+			}
+			Object body = response.body();
+			long length;
+			if (body instanceof Path) {
+				try {
+					length = Files.size((Path) body);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			} else if (body instanceof FileChannel) {
+				try {
+					length = ((FileChannel) body).size();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			} else if (body instanceof byte[] || body instanceof String) {
+				body = Bodies.bytes(body);
+				length = ((byte[]) body).length;
+			} else {
+				return response;
+			}
+			response = response.withHeader("Accept-Ranges", "bytes");
+			String range = request.header("Range");
+			if (range == null || request.method().equals("HEAD") || !ifRangeMatches(request.header("If-Range"), response)) {
+				return response;
+			}
+			List<long[]> ranges = parse(range, length);
+			if (ranges == null) {
+				return response;
+			} else if (ranges.isEmpty()) {
+				close(body);
+				return Response.response(416, Headers.of("Content-Range", "bytes */" + length), null);
+			}
+			Response.Builder partial = Response.builder(response).status(206);
+			if (ranges.size() == 1) {
+				long[] r = ranges.get(0);
+				return partial.header("Content-Range", contentRange(r, length))
+						.header("Content-Length", Long.toString(r[1] - r[0] + 1))
+						.body(slice(body, r[0], r[1] - r[0] + 1))
+						.build();
+			}
+			return multipart(partial, body, ranges, length, response.header("Content-Type"));
+		};
+	}
+
+	/**
+	 * True unless If-Range names an entity tag or date the response no longer has. Entity
+	 * tags must match strongly.
+	 */
+	private static boolean ifRangeMatches(String ifRange, Response response) {
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return !ifRange.startsWith("W/") && ifRange.equals(response.header("ETag"));
+		}
+		return ifRange.equals(response.header("Last-Modified"));
+	}
+
+	/**
+	 * Parses a Range header into sorted, merged inclusive ranges within length. Returns null
+	 * if the header is malformed or asks for too many ranges, so it should be ignored, and an
+	 * empty list if none of the ranges can be satisfied.
+	 */
+	static List<long[]> parse(String header, long length) {
+		header = header.trim();
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+		List<long[]> ranges = new ArrayList<>();
+		String[] specs = header.substring(6).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			long first;
+			long last;
+			try {
+				if (dash == 0) {
+					long suffix = Long.parseLong(spec.substring(1));
+					if (suffix < 0) {
+						return null;
+					}
+					first = Math.max(0, length - suffix);
+					last = length - 1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash));
+					if (dash == spec.length() - 1) {
+						last = length - 1;
+					} else {
+						last = Long.parseLong(spec.substring(dash + 1));
+						if (last < first) {
+							return null;
+						}
+						last = Math.min(last, length - 1);
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (first < 0) {
+				return null;
+			}
+			if (first < length && first <= last) {
+				ranges.add(new long[] {first, last});
+			}
+		}
+		ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+		List<long[]> merged = new ArrayList<>();
+		for (long[] r : ranges) {
+			long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (previous != null && r[0] <= previous[1] + 1) {
+				previous[1] = Math.max(previous[1], r[1]);
+			} else {
+				merged.add(r);
+			}
+		}
+		return merged;
+	}
+
+	private static String contentRange(long[] r, long length) {
+		return "bytes " + r[0] + "-" + r[1] + "/" + length;
+	}
+
+	private static Response multipart(Response.Builder partial, Object body, List<long[]> ranges, long length, String type) {
+		String boundary = Tokens.generate();
+		List<byte[]> headers = new ArrayList<>();
+		long total = 0;
+		for (long[] r : ranges) {
+			String partHeader = "\r\n--" + boundary + "\r\n"
+					+ (type != null ? "Content-Type: " + type + "\r\n" : "")
+					+ "Content-Range: " + contentRange(r, length) + "\r\n\r\n";
+			byte[] bytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+			headers.add(bytes);
+			total += bytes.length + r[1] - r[0] + 1;
+		}
+		byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		total += end.length;
+		return partial.header("Content-Type", "multipart/byteranges; boundary=" + boundary)
+				.header("Content-Length", Long.toString(total))
+				.body((Streamable) out -> {
+					try {
+						for (int i = 0; i < ranges.size(); i++) {
+							long[] r = ranges.get(i);
+							out.write(headers.get(i));
+							write(body, r[0], r[1] - r[0] + 1, out);
+						}
+						out.write(end);
+					} finally {
+						close(body);
+					}
+				})
+				.build();
+	}
+
+	private static Object slice(Object body, long offset, long count) {
+		return (Streamable) out -> {
+			try {
+				write(body, offset, count, out);
+			} finally {
+				close(body);
+			}
+		};
+	}
+
+	private static void close(Object body) {
+		if (body instanceof FileChannel) {
+			try {
+				((FileChannel) body).close();
+			} catch (IOException e) {
+				// nothing more is read from it
+			}
+		}
+	}
+
+	private static void write(Object body, long offset, long count, OutputStream out) throws IOException {
+		if (body instanceof byte[]) {
+			out.write((byte[]) body, (int) offset, (int) count);
+		} else if (body instanceof FileChannel) {
+			transfer((FileChannel) body, offset, count, out);
+		} else {
+			try (FileChannel channel = FileChannel.open((Path) body)) {
+				transfer(channel, offset, count, out);
+			}
+		}
+	}
+
+	/**
+	 * Copies count bytes of a file starting at offset to out.
+	 */
+	private static void transfer(FileChannel channel, long offset, long count, OutputStream out) throws IOException {
+		WritableByteChannel target = Channels.newChannel(out);
+		while (count > 0) {
+			long n = channel.transferTo(offset, count, target);
+			if (n <= 0) {
+				throw new IOException("file is shorter than expected");
+			}
+			offset += n;
+			count -= n;
+		}
+	}
+}
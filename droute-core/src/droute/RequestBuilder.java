@@ -1,7 +1,6 @@
 package droute;
 
 import java.net.URI;
-import java.util.HashMap;
 import java.util.Map;
 
 public class RequestBuilder  {
@@ -12,7 +11,11 @@ public class RequestBuilder  {
     final MultiMap formParams = new MultiMap();
     final MultiMap urlParams = new MultiMap();
     Headers headers = Headers.EMPTY;
-    final Map stateMap = new HashMap<>();
+    final RequestState state = new RequestState();
+    /**
+     * The path of a copied request, which may differ from the one derived from its URIs.
+     */
+    String path;
 
     public RequestBuilder(String method, String path) {
         this.method = method;
@@ -20,6 +23,40 @@ public class RequestBuilder  {
         this.uri = contextUri.resolve(path);
     }
 
+    private RequestBuilder(String method, URI contextUri, URI uri) {
+        this.method = method;
+        this.contextUri = contextUri;
+        this.uri = uri;
+    }
+
+    /**
+     * Starts from a copy of a request's method, URIs, path, headers and parameters, so that it
+     * can be handled again after the original, which may be tied to a connection, has been
+     * answered. Form parameters are only copied for methods other than GET and HEAD, to avoid
+     * reading the body of requests which have none. State and the raw request are not
+     * copied, so the copy starts with no Session or other middleware state; objects tied to
+     * the original request must not be used once it has been answered.
+     */
+    public static RequestBuilder from(Request request) {
+        URI contextUri = request.contextUri();
+        URI uri = request.uri();
+        RequestBuilder builder = contextUri != null && uri != null
+                ? new RequestBuilder(request.method(), contextUri, uri)
+                : new RequestBuilder(request.method(), request.path());
+        builder.path = request.path();
+        Map<String, String> headers = request.headers();
+        builder.headers = headers instanceof Headers ? (Headers) headers : new Headers(headers);
+        builder.queryParams.putAll(request.queryParams());
+        builder.params.putAll(request.queryParams());
+        if (!request.method().equals("GET") && !request.method().equals("HEAD")) {
+            builder.formParams.putAll(request.formParams());
+            builder.params.putAll(request.formParams());
+        }
+        builder.urlParams.putAll(request.urlParams());
+        builder.params.putAll(request.urlParams());
+        return builder;
+    }
+
     public RequestBuilder formParam(String key, String value) {
         formParams.put(key, value);
         params.put(key, value);
@@ -38,6 +75,11 @@ public class RequestBuilder  {
         return this;
     }
 
+    public RequestBuilder header(String name, String value) {
+        headers = headers.with(name, value);
+        return this;
+    }
+
     public RequestBuilder cookie(String name, String value) {
         String cookie = headers.get("Cookie");
         if (cookie == null) {
@@ -76,6 +118,11 @@ public class RequestBuilder  {
                 return headers;
             }
 
+            @Override
+            public String path() {
+                return path != null ? path : Request.super.path();
+            }
+
             @Override
             public URI contextUri() {
                 return contextUri;
@@ -108,12 +155,12 @@ public class RequestBuilder  {
 
             @Override
             public void setState(Object state) {
-                stateMap.put(state.getClass(), state);
+                RequestBuilder.this.state.set(state);
             }
 
             @Override
             public <T> T state(Class<T> state) {
-                return (T) stateMap.get(state);
+                return RequestBuilder.this.state.get(state);
             }
         };
     }
@@ -0,0 +1,42 @@
+package droute;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Storage for the state objects middleware attaches to a request, keyed by class.
+ *
+ * Each state class is assigned a small integer slot the first time it is seen, so setting and
+ * retrieving state is an array access rather than a hash lookup. The slot array is only
+ * allocated once state is first set.
+ */
+public final class RequestState {
+	private static final AtomicInteger nextSlot = new AtomicInteger();
+	private static final ClassValue<Integer> slotOf = new ClassValue<Integer>() {
+		@Override
+		protected Integer computeValue(Class<?> type) {
+			return nextSlot.getAndIncrement();
+		}
+	};
+
+	private Object[] slots;
+
+	public void set(Object state) {
+		int slot = slotOf.get(state.getClass());
+		if (slots == null) {
+			slots = new Object[Math.max(slot + 1, 4)];
+		} else if (slot >= slots.length) {
+			slots = Arrays.copyOf(slots, Math.max(slot + 1, slots.length * 2));
+		}
+		slots[slot] = state;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T get(Class<T> type) {
+		if (slots == null) {
+			return null;
+		}
+		int slot = slotOf.get(type);
+		return slot < slots.length ? (T) slots[slot] : null;
+	}
+}
@@ -0,0 +1,234 @@
+package droute;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Holds classpath resources in memory so that serving them again needs no classloader or
+ * jar access. Each resource is read once into an immutable entry along with its type,
+ * modification time and an ETag derived from its content. The least recently used entries
+ * are evicted once the cached bytes exceed the budget, and resources larger than the whole
+ * budget are streamed as Response.resource() does rather than cached. Paths found not to
+ * exist are remembered too, up to MAX_MISSING of them, so repeated requests for them don't
+ * each search the classpath.
+ *
+ * Resources are looked up via the context classloader of the thread which first requests
+ * them, so a cache should not be shared between applications with different classloaders.
+ */
+public class ResourceCache {
+	/**
+	 * Most paths remembered as missing, the least recently requested are forgotten first.
+	 */
+	private static final int MAX_MISSING = 4096;
+	private final long maxBytes;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private final LinkedHashMap<String, Boolean> missing = new LinkedHashMap<String, Boolean>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_MISSING;
+		}
+	};
+	private long totalBytes;
+
+	public ResourceCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns a response for the resource at path, or null if there's no such resource.
+	 */
+	public Response get(String path) {
+		return serve(path, false, false);
+	}
+
+	/**
+	 * Returns a response for the resource at path negotiated against the request's
+	 * Accept-Encoding, or null if there's no such resource. A sibling resource with a ".gz"
+	 * suffix is served to clients accepting gzip if there is one, otherwise the resource is
+	 * compressed once and the result cached alongside it.
+	 */
+	public Response get(Request request, String path) {
+		return serve(path, true, AcceptEncoding.accepts(request, "gzip"));
+	}
+
+	private Response serve(String path, boolean negotiate, boolean gzip) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(path);
+			if (entry == null && missing.containsKey(path)) {
+				return null;
+			}
+		}
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		try {
+			if (entry == null) {
+				URL url = loader.getResource(path);
+				if (url == null) {
+					synchronized (this) {
+						missing.put(path, Boolean.TRUE);
+					}
+					return null;
+				}
+				entry = load(url);
+				if (entry == null) {
+					return Response.resource(url);
+				}
+				put(path, entry);
+			}
+			if (!negotiate) {
+				return entry.response;
+			}
+			if (entry.gzipped == null) {
+				entry = new Entry(entry, gzipVariant(loader, path, entry.bytes));
+				put(path, entry);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return gzip ? entry.gzipResponse : entry.varyResponse;
+	}
+
+	private synchronized void put(String path, Entry entry) {
+		Entry previous = entries.put(path, entry);
+		if (previous != null) {
+			totalBytes -= previous.size();
+		}
+		totalBytes += entry.size();
+		Iterator<Entry> it = entries.values().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			totalBytes -= it.next().size();
+			it.remove();
+		}
+	}
+
+	/**
+	 * The number of bytes currently cached.
+	 */
+	public synchronized long size() {
+		return totalBytes;
+	}
+
+	/**
+	 * Reads a resource into a new entry, or returns null if it is too large to cache.
+	 */
+	private Entry load(URL url) throws IOException {
+		URLConnection conn = url.openConnection();
+		long length = conn.getContentLengthLong();
+		if (length > maxBytes) {
+			return null;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 8192);
+		try (InputStream in = conn.getInputStream()) {
+			byte[] buf = new byte[16384];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+				if (out.size() > maxBytes) {
+					return null;
+				}
+			}
+		}
+		return new Entry(out.toByteArray(), ContentTypes.fromExtension(url.getPath()), conn.getLastModified());
+	}
+
+	/**
+	 * Returns the gzipped form of a resource, preferring a precompressed sibling. An empty
+	 * array means compression isn't worthwhile and the resource should be sent as is.
+	 */
+	private byte[] gzipVariant(ClassLoader loader, String path, byte[] bytes) throws IOException {
+		URL sibling = loader.getResource(path + ".gz");
+		if (sibling != null) {
+			try (InputStream in = sibling.openStream()) {
+				return readAll(in, 16384);
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+			gzip.write(bytes);
+		}
+		return out.size() < bytes.length ? out.toByteArray() : new byte[0];
+	}
+
+	private static byte[] readAll(InputStream in, int sizeHint) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint);
+		byte[] buf = new byte[16384];
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	static final class Entry {
+		final byte[] bytes;
+		final String type;
+		final long lastModified;
+		final String etag;
+		final Response response;
+		/**
+		 * The gzip variant, empty if not worth compressing or null if not yet prepared.
+		 */
+		final byte[] gzipped;
+		final Response gzipResponse;
+		final Response varyResponse;
+
+		Entry(byte[] bytes, String type, long lastModified) {
+			this.bytes = bytes;
+			this.type = type;
+			this.lastModified = lastModified;
+			this.etag = Bodies.etag(bytes);
+			this.response = new Response.Impl(200, headers(bytes.length, etag).build(), bytes);
+			this.gzipped = null;
+			this.gzipResponse = null;
+			this.varyResponse = null;
+		}
+
+		/**
+		 * Copies an entry adding its gzip variant.
+		 */
+		Entry(Entry entry, byte[] gzipped) {
+			this.bytes = entry.bytes;
+			this.type = entry.type;
+			this.lastModified = entry.lastModified;
+			this.etag = entry.etag;
+			this.response = entry.response;
+			this.gzipped = gzipped;
+			this.varyResponse = new Response.Impl(200, headers(bytes.length, etag)
+					.set("Vary", "Accept-Encoding").build(), bytes);
+			if (gzipped.length == 0) {
+				this.gzipResponse = varyResponse;
+			} else {
+				String gzipEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+				this.gzipResponse = new Response.Impl(200, headers(gzipped.length, gzipEtag)
+						.set("Content-Encoding", "gzip")
+						.set("Vary", "Accept-Encoding").build(), gzipped);
+			}
+		}
+
+		private Headers.Builder headers(int length, String etag) {
+			Headers.Builder headers = Headers.builder();
+			headers.set("Content-Length", Integer.toString(length));
+			if (type != null) {
+				headers.set("Content-Type", type);
+			}
+			if (lastModified != 0) {
+				headers.set("Last-Modified", Response.Impl.httpDate(lastModified));
+			}
+			headers.set("ETag", etag);
+			return headers;
+		}
+
+		long size() {
+			return bytes.length + (gzipped == null ? 0 : gzipped.length);
+		}
+	}
+}
@@ -37,10 +37,34 @@ public interface Response {
 		return new Impl(status(), hheaders, body());
 	}
 
+	/**
+	 * Returns a copy of this response with each of the given headers set.
+	 */
+	default Response withHeaders(String... headersAndValues) {
+		Map<String, String> map = headers();
+		Headers headers = map instanceof Headers ? (Headers)map : new Headers(map);
+		return new Impl(status(), headers.withAll(headersAndValues), body());
+	}
+
 	default Response withBody(Object body) {
 		return response(status(), headers(), body());
 	}
 
+	/**
+	 * Returns a builder for a 200 response with no headers or body.
+	 */
+	public static Builder builder() {
+		return new Builder(200, Headers.EMPTY, null);
+	}
+
+	/**
+	 * Returns a builder initialised with the status, headers and body of an existing response.
+	 */
+	public static Builder builder(Response response) {
+		Map<String, String> headers = response.headers();
+		return new Builder(response.status(), headers instanceof Headers ? (Headers)headers : new Headers(headers), response.body());
+	}
+
 	public static Response response(int status, Map<String,String> headers, Object body) {
 		if (headers == null) {
 			return new Impl(status, Headers.EMPTY, body);			
@@ -116,20 +140,20 @@ public interface Response {
 			return response(404, "Resource not found");
 		}
 		URLConnection conn = resource.openConnection();
-		Headers headers = Headers.EMPTY;
+		Headers.Builder headers = Headers.builder();
 		long lastModified = conn.getLastModified();
 		if (lastModified != 0) {
-			headers = headers.with("Last-Modified", Impl.httpDate(lastModified));
+			headers.set("Last-Modified", Impl.httpDate(lastModified));
 		}
 		long length = conn.getContentLengthLong();
 		if (length != -1) {
-			headers = headers.with("Content-Length", Long.toString(length));
+			headers.set("Content-Length", Long.toString(length));
 		}
 		String type = ContentTypes.fromExtension(resource.getPath());
 		if (type != null) {
-			headers = headers.with("Content-Type", type);
+			headers.set("Content-Type", type);
 		}
-		return new Impl(200, headers, conn.getInputStream());
+		return new Impl(200, headers.build(), conn.getInputStream());
 	}
 	
 	public static Response render(String view, Object model) {
@@ -147,6 +171,60 @@ public interface Response {
 		return render(view, model);
 	}
 	
+	/**
+	 * Mutable response under construction. Headers are accumulated in place and only frozen
+	 * into an immutable Headers when build() is called.
+	 */
+	public static class Builder {
+		private int status;
+		private final Headers.Builder headers;
+		private Object body;
+
+		Builder(int status, Headers headers, Object body) {
+			this.status = status;
+			this.headers = headers.toBuilder();
+			this.body = body;
+		}
+
+		public Builder status(int status) {
+			this.status = status;
+			return this;
+		}
+
+		public Builder header(String header, String value) {
+			headers.set(header, value);
+			return this;
+		}
+
+		public Builder headers(String... headersAndValues) {
+			if (headersAndValues.length % 2 != 0) {
+				throw new IllegalArgumentException("headersAndValues must have an equal number of headers and values");
+			}
+			for (int i = 0; i < headersAndValues.length; i += 2) {
+				headers.set(headersAndValues[i], headersAndValues[i + 1]);
+			}
+			return this;
+		}
+
+		public Builder removeHeader(String header) {
+			headers.remove(header);
+			return this;
+		}
+
+		public String header(String header) {
+			return headers.get(header);
+		}
+
+		public Builder body(Object body) {
+			this.body = body;
+			return this;
+		}
+
+		public Response build() {
+			return new Impl(status, headers.build(), body);
+		}
+	}
+
 	static class Impl implements Response {
 		final int status;
 		final Headers headers;
@@ -199,6 +277,11 @@ public interface Response {
 			}
 		}
 
+		@Override
+		public Impl withHeaders(String... headersAndValues) {
+			return new Impl(status, headers.withAll(headersAndValues), body);
+		}
+
 		@Override
 		public Impl withBody(Object body) {
 			return new Impl(status, headers, body);
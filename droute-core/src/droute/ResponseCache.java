@@ -0,0 +1,559 @@
+package droute;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Middleware which keeps whole responses in memory so expensive pages are rendered once per
+ * freshness lifetime rather than once per request.
+ *
+ * GET and HEAD responses are cached when the inner handler marks them with a positive
+ * s-maxage or max-age in Cache-Control, and kept for that long. Responses that are private,
+ * no-store or no-cache, set a cookie or vary on "*" are never cached, nor are requests
+ * carrying Authorization. Entries are keyed by method, path and query parameters plus the
+ * values of the request headers named in the response's Vary, so handlers personalising on
+ * a header must say so there. InputStream bodies and Streamable bodies with a
+ * Content-Length are buffered, which means the cache must sit outside any template handler,
+ * while bodies larger than an eighth of the budget pass through uncached. A Streamable
+ * without a Content-Length is copied as it is sent and stored once it has been sent in full,
+ * so it is never produced twice.
+ *
+ * A miss is rendered by one request only, with concurrent requests for the same entry
+ * waiting for and sharing the result, so an expiring popular page causes one render rather
+ * than a stampede. Waiting is limited to ten seconds, after which a request renders for
+ * itself. URLs whose last response couldn't be cached are remembered, and misses for them
+ * are rendered straight away without waiting for one another, so dynamic pages aren't
+ * serialised by the cache. The least recently used entries are evicted once the cached bytes exceed
+ * the budget.
+ *
+ * The stale-while-revalidate and stale-if-error extensions are honoured too. Within the
+ * stale-while-revalidate window an expired entry is still served, with the handler re-run
+ * for a copy of the request on a small background executor to replace it, so no request
+ * waits for the render. The copy has none of the state outer middleware set on the original,
+ * as a shared entry mustn't be built from one user's Session or the like, so a handler which
+ * needs it fails to refresh. Failed refreshes are logged and leave the stale entry in place. Within the stale-if-error window the
+ * handler is run in the foreground but the expired entry is served if it throws or returns a
+ * 5xx status.
+ */
+public class ResponseCache implements Handler {
+	private static final Logger logger = Logger.getLogger(ResponseCache.class.getName());
+	private static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+	private static final int MAX_VARIANTS = 16;
+	private static final long MAX_LIFETIME = 100L * 365 * 24 * 3600;
+	private static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+	private static final int MAX_UNCACHEABLE = 4096;
+	/**
+	 * Runs background refreshes for caches not given an executor of their own. It is bounded
+	 * in both threads and queued tasks, with refreshes beyond that skipped.
+	 */
+	private static final Executor DEFAULT_REFRESHER = newRefresher();
+
+	private static Executor newRefresher() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(64), r -> {
+			Thread thread = new Thread(r, "droute-cache-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private final Handler handler;
+	private final long maxBytes;
+	private final int maxEntryBytes;
+	private final Executor refresher;
+	private final LongSupplier clock;
+	private final LinkedHashMap<String, Variants> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private final SingleFlight<String, Void> flights = new SingleFlight<>();
+	/**
+	 * Keys whose last response wasn't stored, least recently seen first.
+	 */
+	private final LinkedHashMap<String, Boolean> uncacheable = new LinkedHashMap<String, Boolean>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_UNCACHEABLE;
+		}
+	};
+	private long totalBytes;
+
+	/**
+	 * Caches the handler's responses within a 16MB budget.
+	 */
+	public static ResponseCache wrap(Handler handler) {
+		return new ResponseCache(handler, DEFAULT_MAX_BYTES);
+	}
+
+	public ResponseCache(Handler handler, long maxBytes) {
+		this(handler, maxBytes, DEFAULT_REFRESHER);
+	}
+
+	/**
+	 * Creates a cache which revalidates stale entries on the given executor. It should be
+	 * bounded, refreshes it rejects are skipped and tried again by a later request.
+	 */
+	public ResponseCache(Handler handler, long maxBytes, Executor refresher) {
+		this(handler, maxBytes, refresher, System::nanoTime);
+	}
+
+	/**
+	 * Creates a cache reading the time in nanoseconds from clock, for tests.
+	 */
+	ResponseCache(Handler handler, long maxBytes, Executor refresher, LongSupplier clock) {
+		this.handler = handler;
+		this.maxBytes = maxBytes;
+		this.maxEntryBytes = (int) Math.min(maxBytes / 8, Integer.MAX_VALUE - 8);
+		this.refresher = refresher;
+		this.clock = clock;
+	}
+
+	@Override
+	public Response handle(Request request) {
+		String method = request.method();
+		if (!(method.equals("GET") || method.equals("HEAD")) || request.header("Authorization") != null) {
+			return handler.handle(request);
+		}
+		String key = key(request);
+		Entry entry = lookup(key, request);
+		if (entry != null) {
+			long now = clock.getAsLong();
+			if (entry.isFresh(now)) {
+				return entry.response(now);
+			} else if (entry.isRevalidatable(now)) {
+				refresh(key, request, entry);
+				return entry.response(now);
+			}
+		}
+		if (entry == null && isUncacheable(key)) {
+			return render(key, request, null);
+		}
+		Response[] own = new Response[1];
+		flights.run(variantKey(key, request), () -> {
+			Entry cached = lookup(key, request);
+			if (cached == null || !cached.isFresh(clock.getAsLong())) {
+				own[0] = render(key, request, cached);
+			}
+			return null;
+		}, MAX_WAIT_NANOS, TimeUnit.NANOSECONDS);
+		if (own[0] != null) {
+			return own[0];
+		}
+		// waited for another request's render, which may not have been cacheable, may have
+		// failed or may have been for other Vary values
+		entry = lookup(key, request);
+		if (entry != null) {
+			long now = clock.getAsLong();
+			if (entry.isFresh(now) || entry.isUsableOnError(now)) {
+				return entry.response(now);
+			}
+		}
+		return handler.handle(request);
+	}
+
+	/**
+	 * Re-runs the handler for a stale entry in the background unless that's already under
+	 * way. The request is copied as the original may be tied to a connection which is reused
+	 * once the stale response has been sent.
+	 */
+	private void refresh(String key, Request request, Entry stale) {
+		if (!stale.refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		Request copy = RequestBuilder.from(request).build();
+		try {
+			refresher.execute(() -> {
+				try {
+					flights.run(variantKey(key, copy), () -> {
+						Response response = render(key, copy, stale);
+						if (response.body() instanceof Streamable) {
+							// sent nowhere, but copied into the cache on the way
+							try {
+								((Streamable) response.body()).writeTo(new OutputStream() {
+									@Override
+									public void write(int b) {
+									}
+
+									@Override
+									public void write(byte[] b, int off, int len) {
+									}
+								});
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						} else if (response.body() instanceof AutoCloseable) {
+							try {
+								((AutoCloseable) response.body()).close();
+							} catch (Exception e) {
+								// nothing was going to read it
+							}
+						}
+						return null;
+					});
+				} catch (RuntimeException e) {
+					// the stale entry is served until its windows run out
+					logger.log(Level.WARNING, "Refreshing " + copy.path() + " failed", e);
+				} finally {
+					stale.refreshing.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			stale.refreshing.set(false);
+		}
+	}
+
+	/**
+	 * Runs the inner handler and stores its response if it may be cached, returning the
+	 * response to send. The stale entry being replaced, if any, is returned instead when the
+	 * handler fails and it is still within its stale-if-error window.
+	 */
+	private Response render(String key, Request request, Entry stale) {
+		Response response;
+		try {
+			response = handler.handle(request);
+		} catch (RuntimeException e) {
+			long now = clock.getAsLong();
+			if (stale != null && stale.isUsableOnError(now)) {
+				return stale.response(now);
+			}
+			throw e;
+		}
+		long now = clock.getAsLong();
+		if (response.status() >= 500 && response != Response.NEXT_HANDLER
+				&& stale != null && stale.isUsableOnError(now)) {
+			return stale.response(now);
+		}
+		String cacheControl = response.header("Cache-Control");
+		long maxAge = maxAge(response);
+		if (maxAge <= 0 || !isCacheableStatus(response.status()) || response.header("Set-Cookie") != null) {
+			if (stale != null) {
+				remove(key, request, stale);
+			}
+			markUncacheable(key);
+			return response;
+		}
+		String vary = response.header("Vary");
+		String[] varyNames = vary == null ? new String[0] : vary.trim().split("\\s*,\\s*");
+		for (String name : varyNames) {
+			if (name.equals("*")) {
+				markUncacheable(key);
+				return response;
+			}
+		}
+		String values = values(request, varyNames);
+		long swr = directive(cacheControl, "stale-while-revalidate");
+		long sie = directive(cacheControl, "stale-if-error");
+		Object body = response.body();
+		long contentLength = Bodies.contentLength(response);
+		if (body instanceof Streamable && contentLength < 0) {
+			Response sent = response;
+			return response.withBody(Bodies.tee((Streamable) body, maxEntryBytes, bytes -> store(key, varyNames, values,
+					new Entry(withBody(sent, bytes), bytes.length, now, maxAge, swr, sie))));
+		}
+		byte[] bytes = null;
+		if (body != null) {
+			Bodies.Buffered buffered = Bodies.buffer(body, contentLength, maxEntryBytes);
+			if (buffered.bytes == null) {
+				markUncacheable(key);
+				return Bodies.unbuffered(response, buffered);
+			}
+			bytes = buffered.bytes;
+		}
+		Response buffered = body == null ? response : withBody(response, bytes);
+		store(key, varyNames, values, new Entry(buffered, bytes == null ? 0 : bytes.length, now, maxAge, swr, sie));
+		return buffered;
+	}
+
+	private static Response withBody(Response response, byte[] bytes) {
+		return Response.builder(response)
+				.header("Content-Length", Integer.toString(bytes.length))
+				.body(bytes).build();
+	}
+
+	private synchronized Entry lookup(String key, Request request) {
+		Variants variants = entries.get(key);
+		if (variants == null) {
+			return null;
+		}
+		String values = values(request, variants.varyNames);
+		Entry entry = variants.entries.get(values);
+		if (entry == null) {
+			return null;
+		} else if (entry.isExpired(clock.getAsLong())) {
+			remove(key, variants, values, entry);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Removes an entry unless it has already been replaced.
+	 */
+	private synchronized void remove(String key, Request request, Entry entry) {
+		Variants variants = entries.get(key);
+		if (variants != null) {
+			String values = values(request, variants.varyNames);
+			if (variants.entries.get(values) == entry) {
+				remove(key, variants, values, entry);
+			}
+		}
+	}
+
+	private void remove(String key, Variants variants, String values, Entry entry) {
+		variants.entries.remove(values);
+		variants.size -= entry.size;
+		totalBytes -= entry.size;
+		if (variants.entries.isEmpty()) {
+			entries.remove(key);
+		}
+	}
+
+	private synchronized boolean isUncacheable(String key) {
+		return uncacheable.containsKey(key);
+	}
+
+	private synchronized void markUncacheable(String key) {
+		uncacheable.put(key, Boolean.TRUE);
+	}
+
+	private synchronized void store(String key, String[] varyNames, String values, Entry entry) {
+		uncacheable.remove(key);
+		Variants variants = entries.get(key);
+		if (variants == null || !variants.hasNames(varyNames) || variants.entries.size() >= MAX_VARIANTS) {
+			if (variants != null) {
+				totalBytes -= variants.size;
+			}
+			variants = new Variants(varyNames, key.length());
+			totalBytes += variants.size;
+			entries.put(key, variants);
+		}
+		Entry previous = variants.entries.put(values, entry);
+		if (previous != null) {
+			variants.size -= previous.size;
+			totalBytes -= previous.size;
+		}
+		variants.size += entry.size;
+		totalBytes += entry.size;
+		Iterator<Variants> it = entries.values().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			totalBytes -= it.next().size;
+			it.remove();
+		}
+	}
+
+	/**
+	 * The number of bytes currently cached.
+	 */
+	public synchronized long size() {
+		return totalBytes;
+	}
+
+	/**
+	 * Identifies the entry for a request, apart from any Vary headers, with each part length
+	 * prefixed so that no two distinct requests share a key. The scheme and Host are part of
+	 * it so that virtual hosts never see each other's responses.
+	 */
+	static String key(Request request) {
+		StringBuilder key = new StringBuilder(64);
+		key.append(request.method()).append(' ');
+		URI uri = request.uri();
+		if (uri != null && uri.getScheme() != null) {
+			key.append(uri.getScheme());
+		}
+		String host = request.header("Host");
+		if (host == null && uri != null) {
+			host = uri.getRawAuthority();
+		}
+		if (host != null) {
+			host = host.toLowerCase(Locale.ROOT);
+			key.append(' ').append(host.length()).append(':').append(host);
+		}
+		key.append(' ');
+		String path = request.path();
+		key.append(path.length()).append(':').append(path);
+		for (Map.Entry<String, List<String>> param : request.queryParams().entrySet()) {
+			String name = param.getKey();
+			for (String value : param.getValue()) {
+				key.append('&').append(name.length()).append(':').append(name)
+						.append(value.length()).append(':').append(value);
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * The key under which concurrent misses are coalesced, which includes the Vary header
+	 * values once they are known for the entry.
+	 */
+	private synchronized String variantKey(String key, Request request) {
+		Variants variants = entries.get(key);
+		return variants == null ? key : key + '\n' + values(request, variants.varyNames);
+	}
+
+	private static String values(Request request, String[] varyNames) {
+		if (varyNames.length == 0) {
+			return "";
+		}
+		StringBuilder values = new StringBuilder();
+		for (String name : varyNames) {
+			String value = request.header(name);
+			if (value != null) {
+				values.append(value.length()).append(':').append(value);
+			}
+			values.append('\n');
+		}
+		return values.toString();
+	}
+
+	private static boolean isCacheableStatus(int status) {
+		switch (status) {
+		case 200: case 203: case 204: case 300: case 301: case 308: case 404: case 410:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the freshness lifetime in seconds the response allows a shared cache, or zero
+	 * if it may not be cached.
+	 */
+	static long maxAge(Response response) {
+		String cacheControl = response.header("Cache-Control");
+		if (cacheControl == null) {
+			return 0;
+		}
+		long maxAge = 0;
+		long sMaxAge = -1;
+		for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+			directive = directive.trim();
+			int eq = directive.indexOf('=');
+			String name = eq < 0 ? directive : directive.substring(0, eq).trim();
+			if (name.equals("no-store") || name.equals("no-cache") || name.equals("private")) {
+				return 0;
+			} else if (name.equals("max-age")) {
+				maxAge = seconds(directive.substring(eq + 1));
+			} else if (name.equals("s-maxage")) {
+				sMaxAge = seconds(directive.substring(eq + 1));
+			}
+		}
+		return sMaxAge >= 0 ? sMaxAge : maxAge;
+	}
+
+	/**
+	 * Returns the value in seconds of a Cache-Control directive, or zero if it's absent.
+	 */
+	static long directive(String cacheControl, String name) {
+		if (cacheControl == null) {
+			return 0;
+		}
+		for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+			int eq = directive.indexOf('=');
+			if (eq >= 0 && directive.substring(0, eq).trim().equals(name)) {
+				return seconds(directive.substring(eq + 1));
+			}
+		}
+		return 0;
+	}
+
+	static long seconds(String value) {
+		value = value.trim();
+		if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+			value = value.substring(1, value.length() - 1);
+		}
+		try {
+			return Math.max(0, Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * The cached variants of one method, path and query. Vary can differ between responses
+	 * so the header names are those of the latest stored response.
+	 */
+	private static final class Variants {
+		final String[] varyNames;
+		final Map<String, Entry> entries = new HashMap<>(2);
+		long size;
+
+		Variants(String[] varyNames, int keyLength) {
+			this.varyNames = varyNames;
+			this.size = keyLength * 2 + 64;
+		}
+
+		boolean hasNames(String[] names) {
+			if (names.length != varyNames.length) {
+				return false;
+			}
+			for (int i = 0; i < names.length; i++) {
+				if (!names[i].equalsIgnoreCase(varyNames[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class Entry {
+		final Response response;
+		final long size;
+		final long storedAt;
+		final long expiresAt;
+		final long revalidateUntil;
+		final long usableOnErrorUntil;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Entry(Response response, int bodySize, long now, long maxAge, long staleWhileRevalidate, long staleIfError) {
+			this.storedAt = now;
+			this.response = response;
+			long headerSize = 0;
+			for (Map.Entry<String, String> header : response.headers().entrySet()) {
+				headerSize += header.getKey().length() + header.getValue().length();
+			}
+			this.size = bodySize + headerSize * 2 + 64;
+			this.expiresAt = storedAt + TimeUnit.SECONDS.toNanos(Math.min(maxAge, MAX_LIFETIME));
+			this.revalidateUntil = expiresAt + TimeUnit.SECONDS.toNanos(Math.min(staleWhileRevalidate, MAX_LIFETIME));
+			this.usableOnErrorUntil = expiresAt + TimeUnit.SECONDS.toNanos(Math.min(staleIfError, MAX_LIFETIME));
+		}
+
+		boolean isFresh(long now) {
+			return now - expiresAt < 0;
+		}
+
+		boolean isRevalidatable(long now) {
+			return now - revalidateUntil < 0;
+		}
+
+		boolean isUsableOnError(long now) {
+			return now - usableOnErrorUntil < 0;
+		}
+
+		/**
+		 * Whether the entry is past all use and can be dropped.
+		 */
+		boolean isExpired(long now) {
+			return !isFresh(now) && !isRevalidatable(now) && !isUsableOnError(now);
+		}
+
+		Response response(long now) {
+			long age = TimeUnit.NANOSECONDS.toSeconds(now - storedAt);
+			return response.withHeader("Age", Long.toString(age));
+		}
+	}
+}
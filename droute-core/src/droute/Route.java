@@ -3,7 +3,9 @@ package droute;
 import static droute.Response.resource;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -33,8 +35,9 @@ public class Route implements Handler {
 			if (m.matches()) {
 				for (int i = 0; i < m.groupCount(); i++) {
 					String key = keys.get(i);
-					request.params().put(key, m.group(i + 1));
-					request.urlParams().put(key, m.group(i + 1));
+					String value = m.group(i + 1);
+					request.params().put(key, value);
+					request.urlParams().put(key, value);
 				}
 				return handler.handle(request);
 			}
@@ -125,8 +128,8 @@ public class Route implements Handler {
 	
 	public static Handler resources(String urlPrefix, String resourcesRoot) {
 		return GET(urlPrefix + "/*", (request) -> {
-			String path = resourcesRoot + "/" + request.urlParam("*").replace("../", "");
-			URL url = Thread.currentThread().getContextClassLoader().getResource(path);
+			String path = resourcePath(resourcesRoot, request.urlParam("*"));
+			URL url = path == null ? null : Thread.currentThread().getContextClassLoader().getResource(path);
 			if (url != null) {
 				try {
 					return resource(url);
@@ -139,6 +142,50 @@ public class Route implements Handler {
 		});
 	}
 	
+	/**
+	 * Serves classpath resources under resourcesRoot from memory, loading each into the
+	 * cache on first request. Clients that accept gzip are sent a compressed copy.
+	 */
+	public static Handler resources(String urlPrefix, String resourcesRoot, ResourceCache cache) {
+		return GET(urlPrefix + "/*", (request) -> {
+			String path = resourcePath(resourcesRoot, request.urlParam("*"));
+			Response response = path == null ? null : cache.get(request, path);
+			return response != null ? response : Response.NEXT_HANDLER;
+		});
+	}
+
+	/**
+	 * Resolves a request path against resourcesRoot, dropping empty and "." segments. Returns
+	 * null if the path has a ".." segment, which could reach resources outside the root, or
+	 * names nothing but the root itself.
+	 */
+	static String resourcePath(String resourcesRoot, String path) {
+		StringBuilder resolved = new StringBuilder(resourcesRoot);
+		boolean named = false;
+		for (String segment : path.split("[/\\\\]")) {
+			if (segment.equals("..")) {
+				return null;
+			}
+			if (!segment.isEmpty() && !segment.equals(".")) {
+				resolved.append('/').append(segment);
+				named = true;
+			}
+		}
+		return named ? resolved.toString() : null;
+	}
+	
+	/**
+	 * Serves files from a directory on disk, caching them until they change. Close the
+	 * returned handler to stop watching the directory.
+	 */
+	public static StaticFiles files(String urlPrefix, Path root) {
+		try {
+			return new StaticFiles(urlPrefix, root);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
 	public static Handler notFoundHandler(Object body) {
 		return request -> Response.notFound(body);
 	}
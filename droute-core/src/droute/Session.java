@@ -0,0 +1,151 @@
+package droute;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The session of the current request, obtained from Sessions.get(). Its data is loaded from
+ * the store the first time it is read and written back after the handler returns, but only
+ * if it was changed.
+ */
+public final class Session {
+	private final SessionStore store;
+	private String id;
+	private Map<String,String> data;
+	/**
+	 * The encoded size of data, kept up to date as values change.
+	 */
+	private long size;
+	private boolean dirty;
+	private boolean invalidated;
+	private final String loadedId;
+
+	Session(SessionStore store, String id) {
+		this.store = store;
+		this.id = id;
+		this.loadedId = id;
+	}
+
+	private Map<String,String> data() {
+		if (data == null) {
+			Map<String,String> stored = id == null ? null : store.load(id);
+			if (stored == null) {
+				id = null;
+				data = new LinkedHashMap<>();
+			} else {
+				data = new LinkedHashMap<>(stored);
+			}
+			size = SessionCodec.size(data);
+		}
+		return data;
+	}
+
+	public synchronized String get(String name) {
+		return data().get(name);
+	}
+
+	/**
+	 * Sets a session value, removing it if value is null. A session cookie is issued if
+	 * the request didn't already have one.
+	 *
+	 * @throws IllegalArgumentException if the store can't hold the session with this value,
+	 *         in which case the session is left as it was
+	 */
+	public synchronized void set(String name, String value) {
+		if (value == null) {
+			remove(name);
+			return;
+		}
+		String previous = data().get(name);
+		if (value.equals(previous)) {
+			return;
+		}
+		long newSize = size + SessionCodec.size(name, value) - (previous == null ? 0 : SessionCodec.size(name, previous));
+		if (newSize > store.maxDataSize()) {
+			throw new IllegalArgumentException("session data would be " + newSize + " bytes, the limit is " + store.maxDataSize());
+		}
+		data.put(name, value);
+		size = newSize;
+		dirty = true;
+	}
+
+	public synchronized void remove(String name) {
+		String previous = data().remove(name);
+		if (previous != null) {
+			size -= SessionCodec.size(name, previous);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * A read-only copy of the session's values.
+	 */
+	public synchronized Map<String,String> attributes() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(data()));
+	}
+
+	/**
+	 * True if the request didn't carry a valid session.
+	 */
+	public synchronized boolean isNew() {
+		return data().isEmpty() && id == null;
+	}
+
+	/**
+	 * Discards the session and everything in it. Values set afterwards go into a new
+	 * session with a fresh id, which is worth doing on login to prevent session fixation.
+	 */
+	public synchronized void invalidate() {
+		invalidated = loadedId != null;
+		id = null;
+		data = new LinkedHashMap<>();
+		size = SessionCodec.size(data);
+		dirty = false;
+	}
+
+	/**
+	 * The session id, or null if the session has not been stored yet.
+	 */
+	public synchronized String id() {
+		data();
+		return id;
+	}
+
+	/**
+	 * Writes any changes back to the store after the handler has run, adding a Set-Cookie
+	 * header to the response if the session cookie needs to change.
+	 */
+	synchronized Response commit(Request request, Response response, String cookieName) {
+		if (invalidated) {
+			store.delete(loadedId);
+		}
+		if (!dirty && !invalidated) {
+			return response;
+		}
+		if (dirty && !data.isEmpty()) {
+			String value = store.save(id != null ? id : Tokens.generate(), Collections.unmodifiableMap(new LinkedHashMap<>(data)));
+			id = value;
+			dirty = false;
+			if (value.equals(loadedId)) {
+				return response;
+			}
+			return Cookies.set(response, cookieName, value,
+					Cookies.path(request.contextPath()),
+					Cookies.httpOnly(),
+					Cookies.autosecure(request));
+		}
+		if (id != null) {
+			store.delete(id);
+			id = null;
+		}
+		if (loadedId == null) {
+			return response;
+		}
+		return Cookies.set(response, cookieName, "",
+				Cookies.path(request.contextPath()),
+				Cookies.maxAge(0),
+				Cookies.httpOnly(),
+				Cookies.autosecure(request));
+	}
+}
@@ -0,0 +1,78 @@
+package droute;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The binary form of session data used by stores which keep it outside the heap: a count
+ * followed by each key and value in modified UTF-8.
+ */
+class SessionCodec {
+	private SessionCodec() {}
+
+	/**
+	 * The number of bytes encode() produces for data.
+	 */
+	static long size(Map<String,String> data) {
+		long size = 4;
+		for (Map.Entry<String,String> entry : data.entrySet()) {
+			size += size(entry.getKey(), entry.getValue());
+		}
+		return size;
+	}
+
+	/**
+	 * The number of bytes one name and value add to the encoded form.
+	 */
+	static long size(String name, String value) {
+		return 4 + utfLength(name) + utfLength(value);
+	}
+
+	private static long utfLength(String s) {
+		long length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			length += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+		}
+		return length;
+	}
+
+	static byte[] encode(Map<String,String> data) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(data.size());
+			for (Map.Entry<String,String> entry : data.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes session data, returning null if it is malformed.
+	 */
+	static Map<String,String> decode(byte[] bytes, int offset, int length) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+			int count = in.readInt();
+			if (count < 0 || count > length) {
+				return null;
+			}
+			Map<String,String> data = new LinkedHashMap<>();
+			for (int i = 0; i < count; i++) {
+				data.put(in.readUTF(), in.readUTF());
+			}
+			return data;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
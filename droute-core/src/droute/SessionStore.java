@@ -0,0 +1,38 @@
+package droute;
+
+import java.util.Map;
+
+/**
+ * Where Sessions keeps session data between requests. Implementations must be safe to call
+ * from many threads at once.
+ */
+public interface SessionStore {
+
+	/**
+	 * Returns the data of the session identified by a cookie value, or null if there is no
+	 * such session or it has expired.
+	 */
+	Map<String,String> load(String id);
+
+	/**
+	 * Stores the data of a session and returns the value to put in the session cookie.
+	 * Server-side stores keep the data under id and return it unchanged.
+	 */
+	String save(String id, Map<String,String> data);
+
+	/**
+	 * The largest session data save() can store, in bytes of its encoded form: a 4 byte count
+	 * followed by each name and value as a 2 byte length and modified UTF-8, as written by
+	 * DataOutputStream.writeUTF. Session.set() keeps a running total and rejects values taking
+	 * a session over this, so that the handler finds out while it can still respond rather
+	 * than when the session is saved after it has returned.
+	 */
+	default int maxDataSize() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Discards a session.
+	 */
+	void delete(String id);
+}
@@ -0,0 +1,46 @@
+package droute;
+
+/**
+ * Middleware which gives handlers a session tied to a cookie. Where the session data lives
+ * is up to the SessionStore: on the server in MemorySessionStore or MappedSessionStore, or
+ * in the cookie itself with CookieSessionStore.
+ */
+public class Sessions {
+	private Sessions() {}
+
+	/**
+	 * Retrieves the session associated with a request. Nothing is loaded from the store
+	 * until a value is read, and no cookie is set unless a value is changed.
+	 */
+	public static Session get(Request request) {
+		Session session = request.state(Session.class);
+		if (session == null) {
+			throw new IllegalStateException("Sessions.get() must be called from a handler wrapped in Sessions.wrap()");
+		}
+		return session;
+	}
+
+	/**
+	 * Wraps a handler with sessions kept in memory, using "session" as the cookie name.
+	 */
+	public static Handler wrap(Handler handler) {
+		return wrap(handler, new MemorySessionStore());
+	}
+
+	public static Handler wrap(Handler handler, SessionStore store) {
+		return wrap(handler, store, "session");
+	}
+
+	public static Handler wrap(Handler handler, SessionStore store, String cookieName) {
+		return request -> {
+			String id = Cookies.get(request, cookieName);
+			if (id != null && id.isEmpty()) {
+				id = null;
+			}
+			Session session = new Session(store, id);
+			request.setState(session);
+			Response response = handler.handle(request);
+			return session.commit(request, response, cookieName);
+		};
+	}
+}
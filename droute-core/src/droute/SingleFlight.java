@@ -0,0 +1,70 @@
+package droute;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one computation per key at a time. Callers arriving while a computation for
+ * their key is in flight wait for it and share its result, or its exception, instead of
+ * starting their own. Nothing is remembered once a computation completes.
+ */
+class SingleFlight<K, V> {
+	private final ConcurrentHashMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+	/**
+	 * Runs work unless a computation for key is already in flight, in which case its result
+	 * is awaited indefinitely.
+	 */
+	V run(K key, Supplier<V> work) {
+		return run(key, work, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Runs work unless a computation for key is already in flight, in which case its result
+	 * is awaited for up to timeout before giving up and running work independently. A
+	 * timeout of zero waits indefinitely.
+	 */
+	V run(K key, Supplier<V> work, long timeout, TimeUnit unit) {
+		CompletableFuture<V> call = new CompletableFuture<>();
+		CompletableFuture<V> leader = calls.putIfAbsent(key, call);
+		if (leader == null) {
+			try {
+				V value = work.get();
+				call.complete(value);
+				return value;
+			} catch (RuntimeException | Error e) {
+				call.completeExceptionally(e);
+				throw e;
+			} finally {
+				calls.remove(key, call);
+			}
+		}
+		try {
+			return timeout > 0 ? leader.get(timeout, unit) : leader.get();
+		} catch (TimeoutException e) {
+			return work.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * The number of computations in flight.
+	 */
+	int inFlight() {
+		return calls.size();
+	}
+}
@@ -0,0 +1,272 @@
+package droute;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves files from a directory, created by Route.files().
+ *
+ * Responses are cached so that serving a file again needs no filesystem access at all. Files
+ * up to maxFileSize are held in memory, within a total byte budget, and larger files are
+ * cached as just their metadata and sent from disk. A WatchService on the directory tree
+ * drops cached entries as soon as their files change, rather than checking each file on every
+ * request.
+ *
+ * Request paths are resolved lexically within the root, so ".." can't escape it. Symbolic
+ * links are followed only while their targets stay inside the root's real path; a link that
+ * leads out of it is treated as missing.
+ */
+public class StaticFiles implements Handler, AutoCloseable {
+	private final Path root;
+	/**
+	 * The root with its own symbolic links resolved, which files must resolve within.
+	 */
+	private final Path realRoot;
+	private final Handler route;
+	private final long maxBytes;
+	private final long maxFileSize;
+	private final WatchService watcher;
+	/**
+	 * Keyed by requested path, which may reach the file through symbolic links.
+	 */
+	private final LinkedHashMap<Path, Cached> cache = new LinkedHashMap<>(64, 0.75f, true);
+	private long totalBytes;
+	/**
+	 * Bumped on every invalidation so that a file read while it was changing isn't cached.
+	 */
+	private long generation;
+	private boolean closed;
+
+	/**
+	 * Serves files with a 32MB cache of files up to 1MB.
+	 */
+	public StaticFiles(String urlPrefix, Path root) throws IOException {
+		this(urlPrefix, root, 32 * 1024 * 1024, 1024 * 1024);
+	}
+
+	public StaticFiles(String urlPrefix, Path root, long maxBytes, long maxFileSize) throws IOException {
+		this.root = root.toAbsolutePath().normalize();
+		this.realRoot = this.root.toRealPath();
+		this.maxBytes = maxBytes;
+		this.maxFileSize = maxFileSize;
+		this.route = Route.GET(urlPrefix + "/*", request -> serve(request.urlParam("*")));
+		this.watcher = FileSystems.getDefault().newWatchService();
+		try {
+			registerTree(this.root);
+		} catch (IOException e) {
+			watcher.close();
+			throw e;
+		}
+		Thread thread = new Thread(this::watch, "StaticFiles watcher " + this.root);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public Response handle(Request request) {
+		return route.handle(request);
+	}
+
+	private Response serve(String relativePath) {
+		Path path;
+		try {
+			path = root.resolve(relativePath).normalize();
+		} catch (InvalidPathException e) {
+			return Response.NEXT_HANDLER;
+		}
+		if (!path.startsWith(root)) {
+			return Response.NEXT_HANDLER;
+		}
+		long loadGeneration;
+		synchronized (this) {
+			Cached cached = cache.get(path);
+			if (cached != null) {
+				return cached.response;
+			}
+			loadGeneration = generation;
+		}
+		Cached loaded;
+		try {
+			loaded = load(path);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (loaded == null) {
+			return Response.NEXT_HANDLER;
+		}
+		put(path, loaded, loadGeneration);
+		return loaded.response;
+	}
+
+	/**
+	 * Builds the response for a file, or returns null if it isn't a regular file within the
+	 * root.
+	 */
+	private Cached load(Path path) throws IOException {
+		Path real;
+		BasicFileAttributes attrs;
+		try {
+			real = path.toRealPath();
+			if (!real.startsWith(realRoot)) {
+				return null;
+			}
+			attrs = Files.readAttributes(real, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+		if (!attrs.isRegularFile()) {
+			return null;
+		}
+		long lastModified = attrs.lastModifiedTime().toMillis();
+		Object body;
+		String etag;
+		long length;
+		if (attrs.size() <= maxFileSize) {
+			byte[] bytes = Files.readAllBytes(real);
+			body = bytes;
+			length = bytes.length;
+			etag = Bodies.etag(bytes);
+		} else {
+			// the checked file, not whatever a link might point to by the time it's sent
+			body = real;
+			length = attrs.size();
+			etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+		}
+		Headers.Builder headers = Headers.builder()
+				.set("Content-Length", Long.toString(length))
+				.set("Last-Modified", Response.Impl.httpDate(lastModified))
+				.set("ETag", etag);
+		String type = ContentTypes.fromExtension(path.getFileName().toString());
+		if (type != null) {
+			headers.set("Content-Type", type);
+		}
+		return new Cached(Response.response(200, headers.build(), body), real);
+	}
+
+	private synchronized void put(Path path, Cached entry, long loadGeneration) {
+		if (closed || loadGeneration != generation) {
+			return;
+		}
+		Cached previous = cache.put(path, entry);
+		if (previous != null) {
+			totalBytes -= previous.size();
+		}
+		totalBytes += entry.size();
+		Iterator<Cached> it = cache.values().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			totalBytes -= it.next().size();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Drops the cached entries for path and anything beneath it, whether they were requested
+	 * by that path or reached it through symbolic links.
+	 */
+	private synchronized void invalidate(Path path) {
+		generation++;
+		Path real = realRoot.resolve(root.relativize(path));
+		Iterator<Map.Entry<Path, Cached>> it = cache.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Path, Cached> entry = it.next();
+			if (entry.getKey().startsWith(path) || entry.getValue().real.startsWith(real)) {
+				totalBytes -= entry.getValue().size();
+				it.remove();
+			}
+		}
+	}
+
+	private void registerTree(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				Path dir = (Path) key.watchable();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW) {
+						invalidate(root);
+						continue;
+					}
+					Path changed = dir.resolve((Path) event.context());
+					invalidate(changed);
+					if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+						try {
+							registerTree(changed);
+						} catch (IOException e) {
+							// the directory went away again, or can't be watched
+						}
+						// files may have been read and then changed before the watch began
+						invalidate(changed);
+					}
+				}
+				key.reset();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Stops watching the directory. Files are still served afterwards, but read from disk
+	 * every time.
+	 */
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+		synchronized (this) {
+			closed = true;
+			cache.clear();
+			totalBytes = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "StaticFiles(" + root + ")";
+	}
+
+	/**
+	 * A cached response and the real path of the file it was read from.
+	 */
+	private static final class Cached {
+		final Response response;
+		final Path real;
+
+		Cached(Response response, Path real) {
+			this.response = response;
+			this.real = real;
+		}
+
+		long size() {
+			return response.body() instanceof byte[] ? ((byte[]) response.body()).length : 0;
+		}
+	}
+}
@@ -1,26 +1,72 @@
 package droute;
 
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.Base64;
-import java.util.regex.Pattern;
 
 /**
  * Random 120-bit (20 character) base 64 tokens for session ids and the like.  
+ *
+ * Each thread draws from its own SecureRandom, preferring the DRBG algorithm where the JVM
+ * provides it, so that generating tokens concurrently doesn't contend on a shared lock.
+ * Random bytes are fetched in batches and encoded straight into the token's characters.
  */
 public class Tokens {
 	private Tokens() {}
 	
-	private static final Pattern RE_SANE_TOKEN = Pattern.compile("[a-zA-Z0-9_-]{20}"); 	
-	private static final SecureRandom random = new SecureRandom();
+	private static final int TOKEN_BYTES = 15;
+	private static final int TOKEN_LENGTH = 20;
+	private static final int BATCH = 64;
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+	private static final ThreadLocal<Generator> generators = ThreadLocal.withInitial(Generator::new);
 	
 	public static String generate() {
-		byte[] bytes = new byte[15];
-		random.nextBytes(bytes);
-		return Base64.getUrlEncoder().encodeToString(bytes);
+		return generators.get().next();
 	}
 	
 	public static boolean isSane(String token) {
-		return token != null && RE_SANE_TOKEN.matcher(token).matches();
+		if (token == null || token.length() != TOKEN_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < TOKEN_LENGTH; i++) {
+			char c = token.charAt(i);
+			if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static SecureRandom newRandom() {
+		try {
+			return SecureRandom.getInstance("DRBG");
+		} catch (NoSuchAlgorithmException e) {
+			return new SecureRandom();
+		}
 	}
 
+	private static class Generator {
+		private final SecureRandom random = newRandom();
+		private final byte[] buffer = new byte[TOKEN_BYTES * BATCH];
+		private final char[] chars = new char[TOKEN_LENGTH];
+		private int pos = buffer.length;
+
+		String next() {
+			if (pos == buffer.length) {
+				random.nextBytes(buffer);
+				pos = 0;
+			}
+			byte[] b = buffer;
+			for (int i = 0; i < TOKEN_LENGTH; i += 4) {
+				int bits = (b[pos] & 0xff) << 16 | (b[pos + 1] & 0xff) << 8 | (b[pos + 2] & 0xff);
+				b[pos] = b[pos + 1] = b[pos + 2] = 0;
+				pos += 3;
+				chars[i] = ALPHABET[bits >>> 18];
+				chars[i + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+				chars[i + 2] = ALPHABET[(bits >>> 6) & 0x3f];
+				chars[i + 3] = ALPHABET[bits & 0x3f];
+			}
+			return new String(chars);
+		}
+	}
 }
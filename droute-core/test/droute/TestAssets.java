@@ -0,0 +1,122 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestAssets {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	ClassLoader original;
+
+	@Before
+	public void saveClassLoader() {
+		original = Thread.currentThread().getContextClassLoader();
+	}
+
+	@After
+	public void restoreClassLoader() {
+		Thread.currentThread().setContextClassLoader(original);
+	}
+
+	void useClasspath(File... roots) throws Exception {
+		URL[] urls = new URL[roots.length];
+		for (int i = 0; i < roots.length; i++) {
+			urls[i] = roots[i].toURI().toURL();
+		}
+		Thread.currentThread().setContextClassLoader(new URLClassLoader(urls, null));
+	}
+
+	void write(String name, String content) throws Exception {
+		Path file = folder.getRoot().toPath().resolve("dir/static/" + name);
+		Files.createDirectories(file.getParent());
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void fingerprintsNameBeforeExtension() {
+		assertEquals("js/app.min.0123456789.js", Assets.fingerprint("js/app.min.js", "0123456789"));
+		assertEquals("LICENSE.0123456789", Assets.fingerprint("LICENSE", "0123456789"));
+		assertEquals("a.b/.hidden.0123456789", Assets.fingerprint("a.b/.hidden", "0123456789"));
+	}
+
+	@Test
+	public void servesFingerprintedPathsAsImmutable() throws Exception {
+		write("css/site.css", "body {}");
+		write("js/app.js", "alert(1)");
+		useClasspath(new File(folder.getRoot(), "dir"));
+		Assets assets = new Assets("/assets", "static", new ResourceCache(10000));
+
+		String css = assets.path("css/site.css");
+		assertTrue(css, css.matches("/assets/css/site\\.[0-9a-f]{10}\\.css"));
+		assertEquals(css, assets.path("/css/site.css"));
+		assertEquals(2, assets.manifest().size());
+		assertEquals("/assets/missing.png", assets.path("missing.png"));
+		Request mounted = new TestRoute.MockRequest("/page") {
+			@Override
+			public String contextPath() {
+				return "/shop/";
+			}
+		};
+		assertEquals("/shop" + css, assets.path(mounted, "css/site.css"));
+		assertEquals(css, assets.path(new TestRoute.MockRequest("/page"), "css/site.css"));
+
+		Response response = assets.handle(new TestRoute.MockRequest(css));
+		assertEquals(200, response.status());
+		assertEquals("body {}", new String(Bodies.bytes(response.body()), StandardCharsets.UTF_8));
+		assertEquals("public, max-age=31536000, immutable", response.header("Cache-Control"));
+
+		Response plain = assets.handle(new TestRoute.MockRequest("/assets/css/site.css"));
+		assertEquals(200, plain.status());
+		assertNull(plain.header("Cache-Control"));
+
+		assertSame(Response.NEXT_HANDLER, assets.handle(new TestRoute.MockRequest("/assets/css/site.0000000000.css")));
+		assertSame(Response.NEXT_HANDLER, assets.handle(new TestRoute.MockRequest("/other/css/site.css")));
+	}
+
+	@Test
+	public void hashChangesWithContent() throws Exception {
+		write("app.js", "one");
+		useClasspath(new File(folder.getRoot(), "dir"));
+		String first = new Assets("/a", "static", new ResourceCache(10000)).path("app.js");
+		write("app.js", "two");
+		String second = new Assets("/a", "static", new ResourceCache(10000)).path("app.js");
+		assertNotEquals(first, second);
+	}
+
+	@Test
+	public void scansJars() throws Exception {
+		File jar = folder.newFile("assets.jar");
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+			out.putNextEntry(new JarEntry("static/"));
+			out.putNextEntry(new JarEntry("static/lib/"));
+			out.putNextEntry(new JarEntry("static/lib/util.js"));
+			out.write("var x;".getBytes(StandardCharsets.UTF_8));
+			out.putNextEntry(new JarEntry("other/skip.js"));
+			out.write("skip".getBytes(StandardCharsets.UTF_8));
+		}
+		write("app.js", "app");
+		useClasspath(new File(folder.getRoot(), "dir"), jar);
+		Assets assets = new Assets("/assets", "static", new ResourceCache(10000));
+
+		assertEquals(2, assets.manifest().size());
+		String util = assets.path("lib/util.js");
+		assertTrue(util, util.matches("/assets/lib/util\\.[0-9a-f]{10}\\.js"));
+		Response response = assets.handle(new TestRoute.MockRequest(util));
+		assertEquals("var x;", new String(Bodies.bytes(response.body()), StandardCharsets.UTF_8));
+	}
+}
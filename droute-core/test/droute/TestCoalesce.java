@@ -0,0 +1,159 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestCoalesce {
+	final AtomicInteger runs = new AtomicInteger();
+	final CountDownLatch started = new CountDownLatch(1);
+	final CountDownLatch release = new CountDownLatch(1);
+	final ExecutorService pool = Executors.newFixedThreadPool(8);
+
+	@After
+	public void shutdown() {
+		release.countDown();
+		pool.shutdownNow();
+	}
+
+	/**
+	 * A handler whose first run blocks until released.
+	 */
+	Handler slow(Function<Integer, Response> response) {
+		return request -> {
+			int n = runs.incrementAndGet();
+			if (n == 1) {
+				started.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return response.apply(n);
+		};
+	}
+
+	static String text(Response response) {
+		return new String(Bodies.bytes(response.body()), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sends the first request, waits for it to reach the handler, then sends the others
+	 * before releasing it.
+	 */
+	List<Response> concurrently(Handler handler, Request first, Request... others) throws Exception {
+		List<Future<Response>> futures = new ArrayList<>();
+		futures.add(pool.submit(() -> handler.handle(first)));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		for (Request request : others) {
+			futures.add(pool.submit(() -> handler.handle(request)));
+		}
+		Thread.sleep(100);
+		release.countDown();
+		List<Response> responses = new ArrayList<>();
+		for (Future<Response> future : futures) {
+			responses.add(future.get(5, TimeUnit.SECONDS));
+		}
+		return responses;
+	}
+
+	static Request get(String path) {
+		return RequestBuilder.get(path).build();
+	}
+
+	@Test
+	public void sharesOneRunBetweenIdenticalRequests() throws Exception {
+		Handler handler = Coalesce.wrap(slow(n -> Response.response((Streamable) out ->
+				out.write(("run " + n).getBytes(StandardCharsets.UTF_8))).withHeader("Content-Length", "5")));
+		List<Response> responses = concurrently(handler, get("/"), get("/"), get("/"), get("/"));
+		for (Response response : responses) {
+			assertEquals("run 1", text(response));
+			assertEquals("5", response.header("Content-Length"));
+		}
+		assertEquals(1, runs.get());
+
+		assertEquals("run 2", text(handler.handle(get("/"))));
+	}
+
+	@Test
+	public void keepsDifferentRequestsApart() throws Exception {
+		Handler handler = Coalesce.wrap(slow(n -> Response.response("run " + n)));
+		concurrently(handler, get("/"),
+				get("/other"),
+				RequestBuilder.get("/").queryParam("q", "1").build(),
+				RequestBuilder.get("/").cookie("session", "abc").build(),
+				RequestBuilder.post("/").build());
+		assertEquals(5, runs.get());
+	}
+
+	@Test
+	public void keepsVirtualHostsApart() throws Exception {
+		Handler handler = Coalesce.wrap(slow(n -> Response.response("run " + n)));
+		List<Response> responses = concurrently(handler,
+				RequestBuilder.get("/").header("Host", "a.example").build(),
+				RequestBuilder.get("/").header("Host", "b.example").build(),
+				RequestBuilder.get("/").header("Host", "a.example").build());
+		assertEquals(2, runs.get());
+		assertEquals("run 1", text(responses.get(2)));
+		assertNotEquals("run 1", text(responses.get(1)));
+	}
+
+	@Test
+	public void doesNotBufferPastLimit() throws Exception {
+		Handler handler = Coalesce.wrap(slow(n -> Response.response((Streamable) out -> {
+			byte[] chunk = new byte[1000];
+			for (int i = 0; i < 100; i++) {
+				out.write(chunk);
+			}
+		})), new Coalesce().bufferLimit(10000));
+		List<Response> responses = concurrently(handler, get("/"), get("/"));
+		for (Response response : responses) {
+			assertTrue(response.body() instanceof Streamable);
+		}
+		// a stream of unknown length can't be shared, so the waiter runs its own
+		assertEquals(2, runs.get());
+	}
+
+	@Test
+	public void usesConfiguredKeyHeaders() throws Exception {
+		Handler handler = Coalesce.wrap(slow(n -> Response.response("run " + n)), new Coalesce().keyHeaders("X-Tenant"));
+		List<Response> responses = concurrently(handler, get("/"),
+				RequestBuilder.get("/").cookie("session", "abc").build(),
+				RequestBuilder.get("/").header("X-Tenant", "b").build());
+		assertEquals("run 1", text(responses.get(1)));
+		assertEquals(2, runs.get());
+	}
+
+	@Test
+	public void doesNotShareCookies() throws Exception {
+		Handler handler = Coalesce.wrap(slow(n -> Cookies.set(Response.response("run " + n), "id", Integer.toString(n))));
+		List<Response> responses = concurrently(handler, get("/"), get("/"), get("/"));
+		assertEquals(3, runs.get());
+		assertEquals("run 1", text(responses.get(0)));
+		assertNotEquals("run 1", text(responses.get(1)));
+	}
+
+	@Test
+	public void runsIndependentlyAfterTimeout() throws Exception {
+		Handler handler = Coalesce.wrap(slow(n -> Response.response("run " + n)), new Coalesce().timeout(Duration.ofMillis(50)));
+		Future<Response> first = pool.submit(() -> handler.handle(get("/")));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals("run 2", text(handler.handle(get("/"))));
+		release.countDown();
+		assertEquals("run 1", text(first.get(5, TimeUnit.SECONDS)));
+	}
+}
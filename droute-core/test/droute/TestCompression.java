@@ -0,0 +1,156 @@
+package droute;
+
+import static droute.Response.response;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+public class TestCompression {
+	static final String HTML;
+	static {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("<p>Hello, compressible world ").append(i).append("</p>\n");
+		}
+		HTML = sb.toString();
+	}
+
+	static Request request(String acceptEncoding) {
+		RequestBuilder builder = RequestBuilder.get("/");
+		if (acceptEncoding != null) {
+			builder.header("Accept-Encoding", acceptEncoding);
+		}
+		return builder.build();
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	static byte[] write(Streamable streamable) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		streamable.writeTo(out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void gzipsStringBodies() throws IOException {
+		Handler handler = Compression.wrap(request -> response(HTML).withHeader("ETag", "\"abc\""));
+		Response response = handler.handle(request("gzip, deflate"));
+		assertEquals("gzip", response.header("Content-Encoding"));
+		assertEquals("Accept-Encoding", response.header("Vary"));
+		assertEquals("\"abc-gz\"", response.header("ETag"));
+		byte[] body = (byte[]) response.body();
+		assertEquals(Integer.toString(body.length), response.header("Content-Length"));
+		assertTrue(body.length * 5 < HTML.length());
+		assertEquals(HTML, new String(readAll(new GZIPInputStream(new ByteArrayInputStream(body))), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void deflatesWhenGzipIsNotAccepted() throws IOException {
+		Response response = Compression.wrap(request -> response(HTML)).handle(request("deflate"));
+		assertEquals("deflate", response.header("Content-Encoding"));
+		byte[] body = (byte[]) response.body();
+		assertEquals(HTML, new String(readAll(new InflaterInputStream(new ByteArrayInputStream(body))), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void compressesStreamsAsTheyAreWritten() throws IOException {
+		byte[] expected = HTML.getBytes(StandardCharsets.UTF_8);
+		Handler handler = Compression.wrap(request -> response((Streamable) out -> {
+			for (int i = 0; i < 10; i++) {
+				out.write(expected);
+				out.flush();
+			}
+		}));
+		// reuse pooled deflaters across several responses
+		for (int round = 0; round < 3; round++) {
+			Response response = handler.handle(request("gzip"));
+			assertNull(response.header("Content-Length"));
+			byte[] body = write((Streamable) response.body());
+			byte[] decompressed = readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+			assertEquals(expected.length * 10, decompressed.length);
+		}
+
+		Response response = Compression.wrap(request -> response(new ByteArrayInputStream(expected))).handle(request("deflate"));
+		byte[] body = write((Streamable) response.body());
+		assertArrayEquals(expected, readAll(new InflaterInputStream(new ByteArrayInputStream(body))));
+	}
+
+	@Test
+	public void skipsWhatShouldNotBeCompressed() {
+		assertFalse(compressed(request -> response(HTML), null));
+		assertFalse(compressed(request -> response(HTML), "br"));
+		assertFalse(compressed(request -> response("tiny"), "gzip"));
+		assertFalse(compressed(request -> response(HTML).withHeader("Content-Type", "image/png"), "gzip"));
+		assertFalse(compressed(request -> response(HTML).withHeader("Content-Encoding", "br"), "gzip"));
+		assertFalse(compressed(request -> response(HTML).withHeader("Cache-Control", "no-transform"), "gzip"));
+		assertFalse(compressed(request -> response(304, null), "gzip"));
+		assertTrue(compressed(request -> response(HTML).withHeader("Content-Type", "image/svg+xml"), "gzip"));
+		assertTrue(compressed(request -> response(HTML).withHeader("Content-Type", "text/html; charset=utf-8"), "gzip"));
+	}
+
+	@Test
+	public void levelsPerContentType() {
+		StringBuilder sb = new StringBuilder();
+		Random random = new Random(1);
+		String[] words = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit"};
+		for (int i = 0; i < 5000; i++) {
+			sb.append(words[random.nextInt(words.length)]).append(random.nextInt(100)).append(' ');
+		}
+		String text = sb.toString();
+		Compression settings = new Compression().minimumSize(0).level("text/plain", 1).level("text/html", 9).skip("application/x-custom");
+		int fast = ((byte[]) Compression.wrap(request -> response(text).withHeader("Content-Type", "text/plain"), settings).handle(request("gzip")).body()).length;
+		int best = ((byte[]) Compression.wrap(request -> response(text).withHeader("Content-Type", "text/html"), settings).handle(request("gzip")).body()).length;
+		assertEquals(18 + deflatedLength(text, 1), fast);
+		assertEquals(18 + deflatedLength(text, 9), best);
+		assertNull(Compression.wrap(request -> response(HTML).withHeader("Content-Type", "application/x-custom"), settings)
+				.handle(request("gzip")).header("Content-Encoding"));
+	}
+
+	static int deflatedLength(String text, int level) {
+		Deflater deflater = new Deflater(level, true);
+		deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+		deflater.finish();
+		byte[] buf = new byte[text.length()];
+		int n = deflater.deflate(buf);
+		deflater.end();
+		return n;
+	}
+
+	static boolean compressed(Handler handler, String acceptEncoding) {
+		return "gzip".equals(Compression.wrap(handler).handle(request(acceptEncoding)).header("Content-Encoding"));
+	}
+
+	@Test
+	public void leavesPartialContentAlone() throws IOException {
+		Handler handler = Compression.wrap(Ranges.wrap(request -> response(HTML)));
+		Request request = RequestBuilder.get("/").header("Accept-Encoding", "gzip").header("Range", "bytes=100-2099").build();
+		Response partial = handler.handle(request);
+		assertEquals(206, partial.status());
+		assertNull(partial.header("Content-Encoding"));
+		assertEquals("bytes 100-2099/" + HTML.length(), partial.header("Content-Range"));
+		byte[] body = partial.body() instanceof Streamable ? write((Streamable) partial.body()) : Bodies.bytes(partial.body());
+		assertEquals(HTML.substring(100, 2100), new String(body, StandardCharsets.US_ASCII));
+
+		Response whole = handler.handle(request("gzip"));
+		assertEquals(200, whole.status());
+		assertEquals("gzip", whole.header("Content-Encoding"));
+	}
+}
@@ -0,0 +1,128 @@
+package droute;
+
+import static droute.Response.response;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestConditional {
+
+	static Request get(String header, String value) {
+		RequestBuilder builder = RequestBuilder.get("/");
+		if (header != null) {
+			builder.header(header, value);
+		}
+		return builder.build();
+	}
+
+	@Test
+	public void etagFromBodyAndNotModified() {
+		Handler handler = Conditional.wrap(request -> response("hello").withHeader("Cache-Control", "max-age=60"));
+		Response first = handler.handle(get(null, null));
+		String etag = first.header("ETag");
+		assertEquals(Bodies.etag("hello".getBytes(StandardCharsets.UTF_8)), etag);
+		assertEquals("hello", first.body());
+
+		Response second = handler.handle(get("If-None-Match", "\"other\", " + etag));
+		assertEquals(304, second.status());
+		assertNull(second.body());
+		assertEquals(etag, second.header("ETag"));
+		assertEquals("max-age=60", second.header("Cache-Control"));
+
+		assertEquals(304, handler.handle(get("If-None-Match", "W/" + etag)).status());
+		assertEquals(200, handler.handle(get("If-None-Match", "\"stale\"")).status());
+	}
+
+	@Test
+	public void buffersStreamedBodies() {
+		byte[] bytes = "streamed".getBytes(StandardCharsets.UTF_8);
+		Handler handler = Conditional.wrap(request -> response((Streamable) out -> out.write(bytes))
+				.withHeader("Content-Length", Integer.toString(bytes.length)));
+		Response response = handler.handle(get(null, null));
+		assertArrayEquals(bytes, (byte[]) response.body());
+		assertEquals(Bodies.etag(bytes), response.header("ETag"));
+	}
+
+	@Test
+	public void leavesStreamsOfUnknownLengthAlone() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		Streamable endless = out -> {
+			byte[] chunk = new byte[1000];
+			while (true) {
+				out.write(chunk);
+			}
+		};
+		Handler handler = Conditional.wrap(request -> {
+			calls.incrementAndGet();
+			return response(endless);
+		}, null, 10000);
+		Response response = handler.handle(get(null, null));
+		assertEquals(1, calls.get());
+		assertNull(response.header("ETag"));
+		assertSame(endless, response.body());
+	}
+
+	@Test
+	public void replaysOverLimitInputStreams() throws Exception {
+		byte[] bytes = new byte[25000];
+		new Random(1).nextBytes(bytes);
+		Handler handler = Conditional.wrap(request -> response(new ByteArrayInputStream(bytes)), null, 10000);
+		Response response = handler.handle(get(null, null));
+		assertNull(response.header("ETag"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = (InputStream) response.body()) {
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+			}
+		}
+		assertArrayEquals(bytes, out.toByteArray());
+
+		byte[] exact = new byte[10000];
+		response = Conditional.wrap(request -> response(new ByteArrayInputStream(exact)), null, 10000).handle(get(null, null));
+		assertArrayEquals(exact, (byte[]) response.body());
+		assertEquals(Bodies.etag(exact), response.header("ETag"));
+	}
+
+	@Test
+	public void ifModifiedSince() {
+		Handler handler = Conditional.wrap(request -> response("x").withHeader("Last-Modified", "Mon, 19 Oct 2026 10:00:00 GMT"));
+		assertEquals(304, handler.handle(get("If-Modified-Since", "Mon, 19 Oct 2026 10:00:00 GMT")).status());
+		assertEquals(304, handler.handle(get("If-Modified-Since", "Tue, 20 Oct 2026 10:00:00 GMT")).status());
+		assertEquals(200, handler.handle(get("If-Modified-Since", "Mon, 19 Oct 2026 09:59:59 GMT")).status());
+		assertEquals(200, handler.handle(get("If-Modified-Since", "garbage")).status());
+	}
+
+	@Test
+	public void validatorSkipsHandler() {
+		AtomicInteger calls = new AtomicInteger();
+		Handler handler = Conditional.wrap(request -> {
+			calls.incrementAndGet();
+			return response("expensive");
+		}, request -> "\"v42\"");
+		Response response = handler.handle(get(null, null));
+		assertEquals("\"v42\"", response.header("ETag"));
+		assertEquals(1, calls.get());
+		response = handler.handle(get("If-None-Match", "\"v42\""));
+		assertEquals(304, response.status());
+		assertEquals("\"v42\"", response.header("ETag"));
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void ignoresOtherMethodsAndStatuses() {
+		Handler handler = Conditional.wrap(request -> response(request.method().equals("POST") ? 200 : 404, "x"));
+		Response post = handler.handle(RequestBuilder.post("/").header("If-None-Match", "*").build());
+		assertEquals(200, post.status());
+		assertNull(post.header("ETag"));
+		assertEquals(404, handler.handle(get("If-None-Match", "*")).status());
+	}
+}
@@ -0,0 +1,116 @@
+package droute;
+
+import static droute.Response.response;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestCookieSessionStore {
+	static final byte[] OLD = "an old secret for testing".getBytes(StandardCharsets.UTF_8);
+	static final byte[] NEW = "a new secret for testing!".getBytes(StandardCharsets.UTF_8);
+
+	static Map<String,String> data() {
+		Map<String,String> data = new LinkedHashMap<>();
+		data.put("user", "alice");
+		data.put("role", "admin");
+		return data;
+	}
+
+	@Test
+	public void roundTrips() {
+		for (CookieSessionStore store : new CookieSessionStore[] {
+				CookieSessionStore.signed(Duration.ofHours(1), NEW),
+				CookieSessionStore.encrypted(Duration.ofHours(1), NEW)}) {
+			String cookie = store.save(null, data());
+			assertEquals(data(), store.load(cookie));
+			assertEquals("session=" + cookie, Cookies.encode("session", cookie));
+		}
+	}
+
+	@Test
+	public void encryptedCookiesHideData() {
+		String cookie = CookieSessionStore.encrypted(Duration.ofHours(1), NEW).save(null, data());
+		String decoded = new String(Base64.getUrlDecoder().decode(cookie), StandardCharsets.ISO_8859_1);
+		assertFalse(decoded.contains("alice"));
+	}
+
+	@Test
+	public void rejectsTamperedCookies() {
+		for (CookieSessionStore store : new CookieSessionStore[] {
+				CookieSessionStore.signed(Duration.ofHours(1), NEW),
+				CookieSessionStore.encrypted(Duration.ofHours(1), NEW)}) {
+			byte[] bytes = Base64.getUrlDecoder().decode(store.save(null, data()));
+			bytes[bytes.length / 2] ^= 1;
+			assertNull(store.load(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes)));
+			assertNull(store.load("!!!"));
+			assertNull(store.load("AAAA"));
+		}
+	}
+
+	@Test
+	public void acceptsPreviousKeysAfterRotation() {
+		String cookie = CookieSessionStore.signed(Duration.ofHours(1), OLD).save(null, data());
+		assertEquals(data(), CookieSessionStore.signed(Duration.ofHours(1), NEW, OLD).load(cookie));
+		assertNull(CookieSessionStore.signed(Duration.ofHours(1), NEW).load(cookie));
+	}
+
+	@Test
+	public void expiresAfterMaxAge() throws InterruptedException {
+		CookieSessionStore store = CookieSessionStore.signed(Duration.ofMillis(50), NEW);
+		String cookie = store.save(null, Collections.singletonMap("a", "b"));
+		Thread.sleep(100);
+		assertNull(store.load(cookie));
+	}
+
+	@Test
+	public void oversizedValuesAreRejectedWhenSet() {
+		for (CookieSessionStore store : new CookieSessionStore[] {
+				CookieSessionStore.signed(Duration.ofHours(1), NEW),
+				CookieSessionStore.encrypted(Duration.ofHours(1), NEW)}) {
+			// a count, then a name of one byte and the value, each after two length bytes
+			char[] fits = new char[store.maxDataSize() - 4 - 3 - 2];
+			Arrays.fill(fits, 'x');
+			Handler handler = Sessions.wrap(request -> {
+				Session session = Sessions.get(request);
+				try {
+					session.set("v", new String(fits) + "x");
+					fail();
+				} catch (IllegalArgumentException e) {
+					session.set("v", new String(fits));
+				}
+				return response("ok");
+			}, store);
+			Response response = handler.handle(RequestBuilder.get("/").build());
+			assertEquals(200, response.status());
+			String setCookie = response.header("Set-Cookie");
+			String value = setCookie.substring("session=".length(), setCookie.indexOf(';'));
+			assertTrue(value.length() <= 4000);
+			assertEquals(new String(fits), store.load(value).get("v"));
+		}
+	}
+
+	@Test
+	public void worksAsSessionsBackend() {
+		Handler handler = Sessions.wrap(request -> {
+			Session session = Sessions.get(request);
+			if (request.queryParam("user") != null) {
+				session.set("user", request.queryParam("user"));
+			}
+			return response(String.valueOf(session.get("user")));
+		}, CookieSessionStore.encrypted(Duration.ofHours(1), NEW));
+		Response response = handler.handle(RequestBuilder.get("/").queryParam("user", "alice").build());
+		String setCookie = response.header("Set-Cookie");
+		String value = setCookie.substring("session=".length(), setCookie.indexOf(';'));
+		response = handler.handle(RequestBuilder.get("/").cookie("session", value).build());
+		assertEquals("alice", response.body());
+		assertNull(response.header("Set-Cookie"));
+	}
+}
@@ -23,6 +23,39 @@ public class TestCookies {
 		assertEquals("NO!", cookies.get("DISASTER!"));
 	}
 
+	@Test
+	public void testParseSkipsInvalidPairs() {
+		Map<String,String> cookies = Cookies.parse("a=1;b=2; bad; c=\"unterminated; d=x y; =empty; e=\"quoted\" ; f=");
+		assertEquals("1", cookies.get("a"));
+		assertEquals("2", cookies.get("b"));
+		assertEquals("quoted", cookies.get("e"));
+		assertEquals("", cookies.get("f"));
+		assertEquals(4, cookies.size());
+	}
+
+	@Test
+	public void testParseDecodesValues() {
+		Map<String,String> cookies = Cookies.parse("a=cruel+world; b=%E2%9C%93; a2=plain");
+		assertEquals("cruel world", cookies.get("a"));
+		assertEquals("\u2713", cookies.get("b"));
+		assertEquals("plain", cookies.get("a2"));
+	}
+
+	@Test
+	public void testLaterCookieWins() {
+		assertEquals("2", Cookies.parse("a=1; a=2").get("a"));
+	}
+
+	@Test
+	public void testGetFromRequest() {
+		Request request = RequestBuilder.get("/").cookie("_ga", "GA1.2.3").cookie("csrfToken", "abc%2Bdef").cookie("a", "1").build();
+		assertEquals("abc+def", Cookies.get(request, "csrfToken"));
+		assertEquals("1", Cookies.get(request, "a"));
+		assertNull(Cookies.get(request, "csrf"));
+		assertEquals(3, Cookies.parse(request).size());
+		assertNull(Cookies.get(RequestBuilder.get("/").build(), "a"));
+	}
+
 	@Test
 	public void testEncode() {
 		assertEquals("hello=cruel+world", Cookies.encode("hello", "cruel world"));
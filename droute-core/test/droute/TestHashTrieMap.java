@@ -0,0 +1,113 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestHashTrieMap {
+
+	@Test
+	public void matchesHashMap() {
+		HashTrieMap<String, Integer> map = HashTrieMap.emptyMap();
+		Map<String, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 5000; i++) {
+			map = map.with("key" + (i % 3000), i);
+			expected.put("key" + (i % 3000), i);
+		}
+		assertEquals(expected, map);
+		assertEquals(3000, map.size());
+		for (int i = 0; i < 3000; i += 3) {
+			map = map.without("key" + i);
+			expected.remove("key" + i);
+		}
+		assertEquals(expected, map);
+		assertEquals(expected.size(), map.size());
+		assertNull(map.get("key0"));
+		assertFalse(map.containsKey("key3"));
+		assertEquals(Integer.valueOf(4001), map.get("key1001"));
+	}
+
+	@Test
+	public void updatesLeaveOriginalUntouched() {
+		HashTrieMap<String, String> a = HashTrieMap.<String, String>emptyMap().with("x", "1").with("y", "2");
+		HashTrieMap<String, String> b = a.with("x", "3").without("y");
+		assertEquals("1", a.get("x"));
+		assertEquals("2", a.get("y"));
+		assertEquals("3", b.get("x"));
+		assertFalse(b.containsKey("y"));
+		assertSame(a, a.with("x", "1"));
+		assertSame(a, a.without("z"));
+	}
+
+	@Test
+	public void collidingHashes() {
+		// "Aa" and "BB" share a hash code
+		HashTrieMap<String, Integer> map = HashTrieMap.<String, Integer>emptyMap()
+				.with("Aa", 1).with("BB", 2).with("AaAa", 3).with("BBBB", 4).with("AaBB", 5);
+		assertEquals(5, map.size());
+		assertEquals(Integer.valueOf(2), map.get("BB"));
+		assertEquals(Integer.valueOf(5), map.get("AaBB"));
+		map = map.without("Aa").without("BBBB");
+		assertEquals(3, map.size());
+		assertNull(map.get("Aa"));
+		assertEquals(Integer.valueOf(2), map.get("BB"));
+		assertEquals(Integer.valueOf(3), map.get("AaAa"));
+		map = map.without("BB").without("AaAa").without("AaBB");
+		assertTrue(map.isEmpty());
+		assertFalse(map.entrySet().iterator().hasNext());
+	}
+
+	@Test
+	public void arrayMapPromotesWhenLarge() {
+		PersistentMap<String, Integer> map = ArrayMap.emptyMap();
+		for (int i = 0; i < ArrayMap.PROMOTE_THRESHOLD; i++) {
+			map = map.with("key" + i, i);
+		}
+		assertTrue(map instanceof ArrayMap);
+		map = map.with("key0", 100);
+		assertTrue(map instanceof ArrayMap);
+		map = map.with("extra", -1);
+		assertTrue(map instanceof HashTrieMap);
+		assertEquals(ArrayMap.PROMOTE_THRESHOLD + 1, map.size());
+		assertEquals(Integer.valueOf(100), map.get("key0"));
+		assertEquals(Integer.valueOf(-1), map.get("extra"));
+	}
+
+	@Test
+	public void headersAreNotPromoted() {
+		Headers headers = Headers.of();
+		for (int i = 0; i < 100; i++) {
+			headers = headers.with("X-Header-" + i, "v");
+		}
+		assertEquals("v", headers.get("x-header-50"));
+	}
+
+	@Test
+	public void publicEntryPointsPromote() {
+		PersistentMap<String, Integer> map = PersistentMap.empty();
+		for (int i = 0; i < 200; i++) {
+			map = map.with("key" + i, i);
+		}
+		assertTrue(map instanceof HashTrieMap);
+		assertEquals(200, map.size());
+		assertEquals(Integer.valueOf(150), map.get("key150"));
+
+		assertTrue(PersistentMap.of("a", 1, "b", 2) instanceof ArrayMap);
+		Object[] keysAndValues = new Object[40];
+		for (int i = 0; i < 20; i++) {
+			keysAndValues[i * 2] = "key" + i;
+			keysAndValues[i * 2 + 1] = i;
+		}
+		PersistentMap<String, Integer> large = PersistentMap.of(keysAndValues);
+		assertTrue(large instanceof HashTrieMap);
+		assertEquals(Integer.valueOf(19), large.get("key19"));
+
+		Map<String, Integer> source = new HashMap<>(large);
+		assertTrue(PersistentMap.copyOf(source) instanceof HashTrieMap);
+		assertEquals(source, PersistentMap.copyOf(source));
+		assertSame(large, PersistentMap.copyOf(large));
+	}
+}
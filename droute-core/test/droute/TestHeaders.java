@@ -0,0 +1,80 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestHeaders {
+
+	@Test
+	public void lookupsIgnoreCase() {
+		Headers headers = Headers.of("Content-Type", "text/html", "X-Custom", "1");
+		assertEquals("text/html", headers.get("content-type"));
+		assertEquals("1", headers.get("X-CUSTOM"));
+		assertNull(headers.get("Content-Length"));
+	}
+
+	@Test
+	public void largeHeaderSetsIgnoreCaseAndPreserveOrder() {
+		List<String> names = new ArrayList<>();
+		Headers headers = Headers.EMPTY;
+		for (int i = 0; i < 50; i++) {
+			String name = "X-Header-" + i;
+			names.add(name);
+			headers = headers.with(name, Integer.toString(i));
+		}
+		headers = headers.with("Cookie", "a=b");
+		names.add("Cookie");
+		for (int i = 0; i < 50; i++) {
+			assertEquals(Integer.toString(i), headers.get("x-header-" + i));
+		}
+		assertEquals("a=b", headers.get("COOKIE"));
+		assertEquals("a=b", headers.get("Cookie"));
+		assertNull(headers.get("X-Header-50"));
+		assertEquals(names, new ArrayList<>(headers.keySet()));
+
+		Headers replaced = headers.with("x-header-3", "three");
+		assertEquals("three", replaced.get("X-Header-3"));
+		assertEquals("3", headers.get("X-Header-3"));
+		assertEquals(51, replaced.size());
+
+		Headers removed = replaced.without("X-HEADER-3");
+		assertNull(removed.get("X-Header-3"));
+		assertEquals("4", removed.get("X-Header-4"));
+	}
+
+	@Test
+	public void firstDuplicateWins() {
+		List<String> pairs = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			pairs.addAll(Arrays.asList("Dup", Integer.toString(i)));
+		}
+		assertEquals("0", Headers.of(pairs.toArray(new String[0])).get("dup"));
+	}
+
+	@Test
+	public void builderReplacesAndRemovesIgnoringCase() {
+		Headers base = Headers.of("Content-Type", "text/plain", "X-A", "1");
+		Headers built = base.toBuilder()
+				.set("content-type", "text/html")
+				.set("X-B", "2")
+				.remove("x-a")
+				.build();
+		assertEquals(Arrays.asList("content-type", "X-B"), new ArrayList<>(built.keySet()));
+		assertEquals("text/html", built.get("Content-Type"));
+		assertEquals("text/plain", base.get("Content-Type"));
+		assertEquals("1", base.get("X-A"));
+	}
+
+	@Test
+	public void withAllSetsEachHeader() {
+		Headers headers = Headers.of("A", "1").withAll("B", "2", "a", "3");
+		assertEquals(2, headers.size());
+		assertEquals("3", headers.get("A"));
+		assertEquals("2", headers.get("B"));
+	}
+}
@@ -0,0 +1,131 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestMappedSessionStore {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sessionsSurviveReopening() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Map<String,String> data = new LinkedHashMap<>();
+		data.put("user", "alice");
+		data.put("theme", "dark ✓");
+		String id = Tokens.generate();
+		try (MappedSessionStore store = new MappedSessionStore(dir, 1000)) {
+			assertEquals(id, store.save(id, data));
+			assertEquals(data, store.load(id));
+			assertNull(store.load(Tokens.generate()));
+			assertNull(store.load("not a token"));
+		}
+		try (MappedSessionStore store = new MappedSessionStore(dir, 1000)) {
+			assertEquals(data, store.load(id));
+			store.delete(id);
+			assertNull(store.load(id));
+		}
+	}
+
+	@Test
+	public void holdsTheSessionsItIsSizedFor() throws IOException {
+		try (MappedSessionStore store = new MappedSessionStore(folder.getRoot().toPath(), 5000)) {
+			String[] ids = new String[5000];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = Tokens.generate();
+				store.save(ids[i], Collections.singletonMap("n", "" + i));
+			}
+			int found = 0;
+			for (String id : ids) {
+				if (store.load(id) != null) {
+					found++;
+				}
+			}
+			// a probe window may occasionally fill, but almost every session is kept
+			assertTrue(found + " of 5000", found >= 4990);
+		}
+	}
+
+	@Test
+	public void replacesLeastRecentlyUsedWhenFull() throws IOException {
+		try (MappedSessionStore store = new MappedSessionStore(folder.getRoot().toPath(), 1, 16, 64, Duration.ofHours(1))) {
+			String[] ids = new String[40];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = Tokens.generate();
+				store.save(ids[i], Collections.singletonMap("n", "" + i));
+			}
+			assertEquals("39", store.load(ids[39]).get("n"));
+			int found = 0;
+			for (String id : ids) {
+				if (store.load(id) != null) {
+					found++;
+				}
+			}
+			assertEquals(16, found);
+		}
+	}
+
+	@Test
+	public void expiresIdleSessions() throws Exception {
+		try (MappedSessionStore store = new MappedSessionStore(folder.getRoot().toPath(), 2, 64, 64, Duration.ofMillis(50))) {
+			String id = Tokens.generate();
+			store.save(id, Collections.singletonMap("a", "b"));
+			assertNotNull(store.load(id));
+			Thread.sleep(100);
+			assertNull(store.load(id));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOversizedData() throws IOException {
+		try (MappedSessionStore store = new MappedSessionStore(folder.getRoot().toPath(), 1, 16, 16, Duration.ofHours(1))) {
+			store.save(Tokens.generate(), Collections.singletonMap("big", "0123456789abcdef"));
+		}
+	}
+
+	@Test
+	public void oversizedValuesAreRejectedWhenSet() throws IOException {
+		try (MappedSessionStore store = new MappedSessionStore(folder.getRoot().toPath(), 1, 16, 64, Duration.ofHours(1))) {
+			Handler handler = Sessions.wrap(request -> {
+				Session session = Sessions.get(request);
+				session.set("user", "alice");
+				try {
+					session.set("user", "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef");
+					fail();
+				} catch (IllegalArgumentException e) {
+					session.set("error", "too big");
+				}
+				return Response.response(session.get("user"));
+			}, store);
+			Response response = handler.handle(RequestBuilder.get("/").build());
+			assertEquals(200, response.status());
+			assertEquals("alice", response.body());
+			String setCookie = response.header("Set-Cookie");
+			String id = setCookie.substring("session=".length(), setCookie.indexOf(';'));
+			Map<String,String> expected = new LinkedHashMap<>();
+			expected.put("user", "alice");
+			expected.put("error", "too big");
+			assertEquals(expected, store.load(id));
+		}
+	}
+
+	@Test
+	public void mismatchedFilesAreReinitialised() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Files.write(dir.resolve("sessions-0.dat"), new byte[] {1, 2, 3});
+		try (MappedSessionStore store = new MappedSessionStore(dir, 1, 16, 64, Duration.ofHours(1))) {
+			assertNull(store.load(Tokens.generate()));
+		}
+	}
+}
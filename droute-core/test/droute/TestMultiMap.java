@@ -0,0 +1,114 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestMultiMap {
+
+	@Test
+	public void singleAndRepeatedValues() {
+		MultiMap map = new MultiMap();
+		map.put("a", "1");
+		map.put("b", "2");
+		map.put("a", "3");
+		assertEquals(2, map.size());
+		assertEquals("1", map.getFirst("a"));
+		assertEquals(Arrays.asList("1", "3"), map.get("a"));
+		assertEquals(Arrays.asList("2"), map.get("b"));
+		assertNull(map.getFirst("c"));
+		assertNull(map.get("c"));
+	}
+
+	@Test
+	public void listsReturnedByGetAreLive() {
+		MultiMap map = new MultiMap();
+		map.put("a", "1");
+		map.get("a").add("2");
+		assertEquals(Arrays.asList("1", "2"), map.get("a"));
+	}
+
+	@Test
+	public void putAllAppends() {
+		MultiMap map = new MultiMap();
+		map.put("a", "1");
+		MultiMap other = new MultiMap();
+		other.put("a", "2");
+		other.put("b", "3");
+		map.putAll(other);
+		assertEquals(Arrays.asList("1", "2"), map.get("a"));
+		assertEquals("3", map.getFirst("b"));
+	}
+
+	@Test
+	public void largeMapsMatchHashMap() {
+		MultiMap map = new MultiMap();
+		Map<String, List<String>> expected = new HashMap<>();
+		for (int i = 0; i < 100; i++) {
+			String key = "key" + (i % 37);
+			map.put(key, "value" + i);
+			expected.computeIfAbsent(key, k -> new ArrayList<>()).add("value" + i);
+		}
+		assertEquals(expected, map);
+		for (int i = 0; i < 37; i += 2) {
+			map.remove("key" + i);
+			expected.remove("key" + i);
+		}
+		assertEquals(expected, map);
+		assertEquals("value1", map.getFirst("key1"));
+		assertFalse(map.containsKey("key0"));
+	}
+
+	static MultiMap sample(int keys) {
+		MultiMap map = new MultiMap();
+		for (int i = 0; i < keys; i++) {
+			map.put("key" + i, "value" + i);
+		}
+		map.put("key0", "again");
+		return map;
+	}
+
+	@Test
+	public void serializes() throws IOException, ClassNotFoundException {
+		for (int keys : new int[] { 2, 5, 20 }) {
+			MultiMap map = sample(keys);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+				out.writeObject(map);
+			}
+			MultiMap copy;
+			try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+				copy = (MultiMap) in.readObject();
+			}
+			assertEquals(map, copy);
+			copy.put("key1", "more");
+			assertEquals(Arrays.asList("value1", "more"), copy.get("key1"));
+			assertNull(copy.get("missing"));
+		}
+	}
+
+	@Test
+	public void clonesAreIndependent() {
+		for (int keys : new int[] { 2, 5, 20 }) {
+			MultiMap map = sample(keys);
+			MultiMap clone = map.clone();
+			assertEquals(map, clone);
+			clone.put("key0", "clone");
+			clone.put("new", "clone");
+			assertEquals(Arrays.asList("value0", "again"), map.get("key0"));
+			assertFalse(map.containsKey("new"));
+			assertEquals("clone", clone.getFirst("new"));
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package droute;
+
+import static droute.Response.response;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestRanges {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static final String TEXT = "0123456789abcdefghij";
+	final Handler handler = Ranges.wrap(request -> response(TEXT.getBytes(StandardCharsets.US_ASCII))
+			.withHeaders("ETag", "\"v1\"", "Last-Modified", "Mon, 19 Oct 2026 10:00:00 GMT", "Content-Type", "text/plain"));
+
+	static Request range(String range, String ifRange) {
+		RequestBuilder builder = RequestBuilder.get("/").header("Range", range);
+		if (ifRange != null) {
+			builder.header("If-Range", ifRange);
+		}
+		return builder.build();
+	}
+
+	static String body(Response response) throws IOException {
+		Object body = response.body();
+		if (body instanceof byte[]) {
+			return new String((byte[]) body, StandardCharsets.US_ASCII);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((Streamable) body).writeTo(out);
+		assertEquals(response.header("Content-Length"), Integer.toString(out.size()));
+		return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	@Test
+	public void singleRanges() throws IOException {
+		Response response = handler.handle(range("bytes=2-5", null));
+		assertEquals(206, response.status());
+		assertEquals("bytes 2-5/20", response.header("Content-Range"));
+		assertEquals("2345", body(response));
+		assertEquals("ghij", body(handler.handle(range("bytes=-4", null))));
+		assertEquals("ij", body(handler.handle(range("bytes=18-", null))));
+		assertEquals("bytes 15-19/20", handler.handle(range("bytes=15-100", null)).header("Content-Range"));
+	}
+
+	@Test
+	public void multipleRanges() throws IOException {
+		Response response = handler.handle(range("bytes=0-1, 10-11, 1-2", null));
+		assertEquals(206, response.status());
+		String type = response.header("Content-Type");
+		assertTrue(type.startsWith("multipart/byteranges; boundary="));
+		String boundary = type.substring(type.indexOf('=') + 1);
+		assertEquals("\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-2/20\r\n\r\n012"
+				+ "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 10-11/20\r\n\r\nab"
+				+ "\r\n--" + boundary + "--\r\n", body(response));
+	}
+
+	@Test
+	public void unsatisfiableAndMalformed() {
+		Response response = handler.handle(range("bytes=20-30", null));
+		assertEquals(416, response.status());
+		assertEquals("bytes */20", response.header("Content-Range"));
+		assertEquals(200, handler.handle(range("bytes=5-2", null)).status());
+		assertEquals(200, handler.handle(range("items=0-1", null)).status());
+		assertEquals(200, handler.handle(range("bytes=x-1", null)).status());
+		Response full = handler.handle(RequestBuilder.get("/").build());
+		assertEquals(200, full.status());
+		assertEquals("bytes", full.header("Accept-Ranges"));
+	}
+
+	@Test
+	public void ifRange() {
+		assertEquals(206, handler.handle(range("bytes=0-1", "\"v1\"")).status());
+		assertEquals(200, handler.handle(range("bytes=0-1", "\"v0\"")).status());
+		assertEquals(200, handler.handle(range("bytes=0-1", "W/\"v1\"")).status());
+		assertEquals(206, handler.handle(range("bytes=0-1", "Mon, 19 Oct 2026 10:00:00 GMT")).status());
+		assertEquals(200, handler.handle(range("bytes=0-1", "Sun, 18 Oct 2026 10:00:00 GMT")).status());
+	}
+
+	@Test
+	public void fileRanges() throws IOException {
+		Path file = folder.newFile().toPath();
+		Files.write(file, TEXT.getBytes(StandardCharsets.US_ASCII));
+		Handler files = Ranges.wrap(request -> response(file));
+		assertEquals("5678", body(files.handle(range("bytes=5-8", null))));
+		assertTrue(body(files.handle(range("bytes=0-0,-1", null))).contains("\r\n\r\n0\r\n--"));
+	}
+
+	@Test
+	public void channelRanges() throws IOException {
+		Path file = folder.newFile().toPath();
+		Files.write(file, TEXT.getBytes(StandardCharsets.US_ASCII));
+		FileChannel channel = FileChannel.open(file);
+		channel.position(7);
+		Response response = Ranges.wrap(request -> response(channel)).handle(range("bytes=2-5", null));
+		assertEquals(206, response.status());
+		assertEquals("bytes 2-5/20", response.header("Content-Range"));
+		assertEquals("2345", body(response));
+		assertFalse(channel.isOpen());
+
+		FileChannel multi = FileChannel.open(file);
+		String parts = body(Ranges.wrap(request -> response(multi)).handle(range("bytes=0-0,-1", null)));
+		assertTrue(parts.contains("\r\n\r\n0\r\n--"));
+		assertTrue(parts.contains("\r\n\r\nj\r\n--"));
+		assertFalse(multi.isOpen());
+	}
+}
@@ -0,0 +1,34 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestRequestState {
+
+	static class First {}
+	static class Second {}
+
+	@Test
+	public void stateIsKeyedByClass() {
+		RequestState state = new RequestState();
+		assertNull(state.get(First.class));
+		First first = new First();
+		Second second = new Second();
+		state.set(first);
+		assertSame(first, state.get(First.class));
+		assertNull(state.get(Second.class));
+		state.set(second);
+		assertSame(first, state.get(First.class));
+		assertSame(second, state.get(Second.class));
+	}
+
+	@Test
+	public void requestsDoNotShareState() {
+		RequestState a = new RequestState();
+		RequestState b = new RequestState();
+		a.set(new First());
+		assertNotNull(a.get(First.class));
+		assertNull(b.get(First.class));
+	}
+}
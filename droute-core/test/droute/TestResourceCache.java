@@ -0,0 +1,189 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestResourceCache {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	ClassLoader original;
+
+	@Before
+	public void useFolderAsClasspath() throws Exception {
+		File root = folder.getRoot();
+		Files.createDirectories(root.toPath().resolve("static"));
+		original = Thread.currentThread().getContextClassLoader();
+		Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[] {root.toURI().toURL()}, null));
+	}
+
+	@After
+	public void restoreClassLoader() {
+		Thread.currentThread().setContextClassLoader(original);
+	}
+
+	Path write(String name, int size) throws Exception {
+		return write(name, new byte[size]);
+	}
+
+	Path write(String name, byte[] bytes) throws Exception {
+		Path file = folder.getRoot().toPath().resolve("static/" + name);
+		Files.write(file, bytes);
+		return file;
+	}
+
+	static Request acceptGzip() {
+		return RequestBuilder.get("/").header("Accept-Encoding", "gzip, deflate").build();
+	}
+
+	@Test
+	public void compressesOnceForGzipClients() throws Exception {
+		write("app.js", 1000);
+		ResourceCache cache = new ResourceCache(10000);
+		Response gzip = cache.get(acceptGzip(), "static/app.js");
+		assertEquals("gzip", gzip.header("Content-Encoding"));
+		assertEquals("Accept-Encoding", gzip.header("Vary"));
+		byte[] body = (byte[]) gzip.body();
+		assertEquals(Integer.toString(body.length), gzip.header("Content-Length"));
+		assertEquals(1000, readAll(new GZIPInputStream(new ByteArrayInputStream(body))).length);
+		assertNotEquals(cache.get("static/app.js").header("ETag"), gzip.header("ETag"));
+		assertSame(gzip, cache.get(acceptGzip(), "static/app.js"));
+
+		Response identity = cache.get(RequestBuilder.get("/").build(), "static/app.js");
+		assertNull(identity.header("Content-Encoding"));
+		assertEquals("Accept-Encoding", identity.header("Vary"));
+		assertEquals("1000", identity.header("Content-Length"));
+		assertEquals(1000 + body.length, cache.size());
+	}
+
+	@Test
+	public void prefersPrecompressedSibling() throws Exception {
+		write("app.css", 500);
+		write("app.css.gz", "precompressed".getBytes(StandardCharsets.US_ASCII));
+		Response gzip = new ResourceCache(10000).get(acceptGzip(), "static/app.css");
+		assertEquals("precompressed", new String((byte[]) gzip.body(), StandardCharsets.US_ASCII));
+		assertEquals("13", gzip.header("Content-Length"));
+	}
+
+	@Test
+	public void sendsIncompressibleResourcesAsIs() throws Exception {
+		byte[] random = new byte[1000];
+		new Random(1).nextBytes(random);
+		write("photo.jpg", random);
+		Response response = new ResourceCache(10000).get(acceptGzip(), "static/photo.jpg");
+		assertNull(response.header("Content-Encoding"));
+		assertEquals("1000", response.header("Content-Length"));
+	}
+
+	@Test
+	public void acceptEncodingQualityValues() {
+		assertTrue(AcceptEncoding.accepts("gzip", "gzip"));
+		assertTrue(AcceptEncoding.accepts("deflate, GZIP;q=0.5", "gzip"));
+		assertFalse(AcceptEncoding.accepts("gzip;q=0, *", "gzip"));
+		assertTrue(AcceptEncoding.accepts("br, *;q=0.1", "gzip"));
+		assertFalse(AcceptEncoding.accepts("br, *;q=0", "gzip"));
+		assertFalse(AcceptEncoding.accepts("identity", "gzip"));
+		assertFalse(AcceptEncoding.accepts((String) null, "gzip"));
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void servesHitsFromMemory() throws Exception {
+		Path file = write("app.js", 100);
+		ResourceCache cache = new ResourceCache(1000);
+		Response first = cache.get("static/app.js");
+		assertEquals(200, first.status());
+		assertEquals("100", first.header("Content-Length"));
+		assertEquals("application/javascript", first.header("Content-Type"));
+		assertNotNull(first.header("ETag"));
+		assertNotNull(first.header("Last-Modified"));
+		assertEquals(100, ((byte[]) first.body()).length);
+		Files.delete(file);
+		assertSame(first, cache.get("static/app.js"));
+		assertNull(cache.get("static/missing.js"));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception {
+		write("a.css", 400);
+		write("b.css", 400);
+		write("c.css", 400);
+		ResourceCache cache = new ResourceCache(1000);
+		Response a = cache.get("static/a.css");
+		cache.get("static/b.css");
+		assertSame(a, cache.get("static/a.css"));
+		cache.get("static/c.css");
+		assertEquals(800, cache.size());
+		assertSame(a, cache.get("static/a.css"));
+		Response b = cache.get("static/b.css");
+		assertSame(b, cache.get("static/b.css"));
+	}
+
+	@Test
+	public void streamsResourcesLargerThanBudget() throws Exception {
+		write("big.bin", 2000);
+		ResourceCache cache = new ResourceCache(1000);
+		Response response = cache.get("static/big.bin");
+		assertEquals("2000", response.header("Content-Length"));
+		assertFalse(response.body() instanceof byte[]);
+		assertEquals(0, cache.size());
+		((InputStream) response.body()).close();
+	}
+
+	@Test
+	public void routeServesFromCache() throws Exception {
+		write("app.js", 10);
+		Handler handler = Route.resources("/assets", "static", new ResourceCache(1000));
+		Response response = handler.handle(new TestRoute.MockRequest("/assets/app.js"));
+		assertEquals("10", response.header("Content-Length"));
+		assertSame(Response.NEXT_HANDLER, handler.handle(new TestRoute.MockRequest("/assets/nope.js")));
+	}
+
+	@Test
+	public void missesAreRemembered() throws Exception {
+		ResourceCache cache = new ResourceCache(1000);
+		assertNull(cache.get("static/late.js"));
+		write("late.js", 10);
+		// Found on the classpath now, but the miss is served from memory.
+		assertNull(cache.get("static/late.js"));
+		assertNotNull(new ResourceCache(1000).get("static/late.js"));
+	}
+
+	@Test
+	public void routeRejectsParentSegments() throws Exception {
+		write("app.js", 10);
+		Files.write(folder.getRoot().toPath().resolve("secret.txt"), new byte[10]);
+		Handler handler = Route.resources("/assets", "static", new ResourceCache(1000));
+		for (String path : new String[] { "../secret.txt", "....//secret.txt", "x/../../secret.txt", "..\\secret.txt", "" }) {
+			assertSame(path, Response.NEXT_HANDLER, handler.handle(new TestRoute.MockRequest("/assets/" + path)));
+		}
+		assertEquals("10", handler.handle(new TestRoute.MockRequest("/assets/./app.js")).header("Content-Length"));
+		assertEquals("10", handler.handle(new TestRoute.MockRequest("/assets//app.js")).header("Content-Length"));
+	}
+}
@@ -0,0 +1,393 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestResponseCache {
+	final AtomicInteger renders = new AtomicInteger();
+	final AtomicLong now = new AtomicLong();
+	final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> new Thread(r, "refresher"));
+
+	@After
+	public void shutdown() {
+		refresher.shutdownNow();
+	}
+
+	/**
+	 * A cache whose clock only moves when advanced.
+	 */
+	ResponseCache cache(Handler handler) {
+		return new ResponseCache(handler, 16 * 1024 * 1024, refresher, now::get);
+	}
+
+	void advance(long seconds) {
+		now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+	}
+
+	Handler counting(String cacheControl) {
+		return request -> {
+			int n = renders.incrementAndGet();
+			Response response = Response.response("render " + n + " " + request.queryParams().getFirst("q"));
+			return cacheControl == null ? response : response.withHeader("Cache-Control", cacheControl);
+		};
+	}
+
+	static String text(Response response) {
+		return new String(Bodies.bytes(response.body()), StandardCharsets.UTF_8);
+	}
+
+	static Request get(String path) {
+		return RequestBuilder.get(path).build();
+	}
+
+	@Test
+	public void servesFreshResponsesFromCache() {
+		ResponseCache cache = ResponseCache.wrap(counting("public, max-age=60"));
+		assertEquals("render 1 null", text(cache.handle(get("/page"))));
+		Response cached = cache.handle(get("/page"));
+		assertEquals("render 1 null", text(cached));
+		assertEquals("0", cached.header("Age"));
+		assertEquals("public, max-age=60", cached.header("Cache-Control"));
+		assertEquals(1, renders.get());
+		assertTrue(cache.size() > 0);
+
+		assertEquals("render 2 null", text(cache.handle(get("/other"))));
+		assertEquals("render 3 null", text(cache.handle(RequestBuilder.post("/page").build())));
+	}
+
+	@Test
+	public void keysOnQueryParameters() {
+		ResponseCache cache = ResponseCache.wrap(counting("max-age=60"));
+		assertEquals("render 1 a", text(cache.handle(RequestBuilder.get("/s").queryParam("q", "a").build())));
+		assertEquals("render 2 b", text(cache.handle(RequestBuilder.get("/s").queryParam("q", "b").build())));
+		assertEquals("render 1 a", text(cache.handle(RequestBuilder.get("/s").queryParam("q", "a").build())));
+	}
+
+	@Test
+	public void keysOnVaryHeaders() {
+		ResponseCache cache = ResponseCache.wrap(request -> {
+			renders.incrementAndGet();
+			return Response.response("hello " + request.header("Accept-Language"))
+					.withHeaders("Cache-Control", "max-age=60", "Vary", "Accept-Language");
+		});
+		assertEquals("hello en", text(cache.handle(RequestBuilder.get("/").header("Accept-Language", "en").build())));
+		assertEquals("hello fr", text(cache.handle(RequestBuilder.get("/").header("Accept-Language", "fr").build())));
+		assertEquals("hello en", text(cache.handle(RequestBuilder.get("/").header("Accept-Language", "en").build())));
+		assertEquals("hello null", text(cache.handle(get("/"))));
+		assertEquals(3, renders.get());
+	}
+
+	@Test
+	public void skipsUncacheableResponses() {
+		for (String cacheControl : new String[] {null, "no-store", "private, max-age=60", "max-age=60, no-cache", "max-age=0"}) {
+			ResponseCache cache = ResponseCache.wrap(counting(cacheControl));
+			cache.handle(get("/"));
+			cache.handle(get("/"));
+		}
+		assertEquals(10, renders.get());
+
+		ResponseCache cookies = ResponseCache.wrap(request -> {
+			renders.incrementAndGet();
+			return Cookies.set(Response.response("hi").withHeader("Cache-Control", "max-age=60"), "a", "b");
+		});
+		cookies.handle(get("/"));
+		cookies.handle(get("/"));
+		assertEquals(12, renders.get());
+		assertEquals(0, cookies.size());
+
+		ResponseCache authorized = ResponseCache.wrap(counting("max-age=60"));
+		authorized.handle(RequestBuilder.get("/").header("Authorization", "Basic eDp5").build());
+		authorized.handle(RequestBuilder.get("/").header("Authorization", "Basic eDp5").build());
+		assertEquals(14, renders.get());
+	}
+
+	@Test
+	public void sMaxAgeOverridesMaxAge() {
+		assertEquals(60, ResponseCache.maxAge(Response.response("").withHeader("Cache-Control", "max-age=0, s-maxage=60")));
+		assertEquals(5, ResponseCache.maxAge(Response.response("").withHeader("Cache-Control", "public,max-age=\"5\"")));
+		assertEquals(0, ResponseCache.maxAge(Response.response("").withHeader("Cache-Control", "max-age=soon")));
+	}
+
+	@Test
+	public void expiresAfterMaxAge() throws Exception {
+		ResponseCache cache = cache(counting("max-age=1"));
+		cache.handle(get("/"));
+		cache.handle(get("/"));
+		assertEquals(1, renders.get());
+		advance(1);
+		assertEquals("render 2 null", text(cache.handle(get("/"))));
+	}
+
+	@Test
+	public void buffersStreamedBodies() {
+		ResponseCache cache = ResponseCache.wrap(request -> {
+			renders.incrementAndGet();
+			return Response.response((Streamable) out -> out.write("streamed".getBytes(StandardCharsets.UTF_8)))
+					.withHeaders("Cache-Control", "max-age=60", "Content-Length", "8");
+		});
+		Response first = cache.handle(get("/"));
+		assertEquals("streamed", text(first));
+		assertEquals("8", first.header("Content-Length"));
+		assertEquals("streamed", text(cache.handle(get("/"))));
+		assertEquals(1, renders.get());
+	}
+
+	@Test
+	public void passesOverLimitAndUncacheableBodiesThrough() throws IOException {
+		Streamable large = sink -> {
+			byte[] chunk = new byte[1000];
+			for (int i = 0; i < 100; i++) {
+				sink.write(chunk);
+			}
+		};
+		ResponseCache cache = new ResponseCache(request -> {
+			renders.incrementAndGet();
+			return Response.response(large).withHeader("Cache-Control", "max-age=60");
+		}, 80000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((Streamable) cache.handle(get("/")).body()).writeTo(out);
+		assertEquals(100000, out.size());
+		assertEquals(1, renders.get());
+		assertEquals(0, cache.size());
+		cache.handle(get("/"));
+		assertEquals(2, renders.get());
+
+		Streamable uncacheable = sink -> sink.write(1);
+		assertSame(uncacheable, ResponseCache.wrap(request -> Response.response(uncacheable)).handle(get("/")).body());
+	}
+
+	@Test
+	public void storesStreamedBodiesOnceSent() throws IOException {
+		ResponseCache cache = new ResponseCache(request -> {
+			int n = renders.incrementAndGet();
+			return Response.response((Streamable) out -> out.write(("render " + n).getBytes(StandardCharsets.UTF_8)))
+					.withHeader("Cache-Control", "max-age=60");
+		}, 80000);
+		Response first = cache.handle(get("/"));
+		assertEquals(0, cache.size());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((Streamable) first.body()).writeTo(out);
+		assertEquals("render 1", new String(out.toByteArray(), StandardCharsets.UTF_8));
+		Response second = cache.handle(get("/"));
+		assertEquals("render 1", text(second));
+		assertEquals("8", second.header("Content-Length"));
+		assertEquals(1, renders.get());
+	}
+
+	@Test
+	public void keysOnHost() {
+		ResponseCache cache = ResponseCache.wrap(request -> Response.response("site " + request.header("Host"))
+				.withHeader("Cache-Control", "max-age=60"));
+		assertEquals("site a.example", text(cache.handle(RequestBuilder.get("/").header("Host", "a.example").build())));
+		assertEquals("site b.example", text(cache.handle(RequestBuilder.get("/").header("Host", "b.example").build())));
+		assertEquals("site a.example", text(cache.handle(RequestBuilder.get("/").header("Host", "A.example").build())));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedWithinBudget() {
+		ResponseCache cache = new ResponseCache(request -> Response.response(new byte[1000])
+				.withHeader("Cache-Control", "max-age=60"), 8000 * 3);
+		for (int i = 0; i < 100; i++) {
+			cache.handle(get("/" + i));
+		}
+		assertTrue(cache.size() <= 8000 * 3);
+		assertTrue(cache.size() > 0);
+	}
+
+	@Test
+	public void rendersConcurrentMissesOnce() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ResponseCache cache = ResponseCache.wrap(request -> {
+			renders.incrementAndGet();
+			started.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			return Response.response("slow").withHeader("Cache-Control", "max-age=60");
+		});
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Response>> results = new ArrayList<>();
+			results.add(pool.submit(() -> cache.handle(get("/"))));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			for (int i = 0; i < 7; i++) {
+				results.add(pool.submit(() -> cache.handle(get("/"))));
+			}
+			Thread.sleep(100);
+			release.countDown();
+			for (Future<Response> result : results) {
+				assertEquals("slow", text(result.get(5, TimeUnit.SECONDS)));
+			}
+			assertEquals(1, renders.get());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void rendersUncacheableMissesWithoutWaiting() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ResponseCache cache = ResponseCache.wrap(request -> {
+			int n = renders.incrementAndGet();
+			if (n == 2) {
+				started.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return Response.response("render " + n);
+		});
+		assertEquals("render 1", text(cache.handle(get("/"))));
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Future<Response> slow = pool.submit(() -> cache.handle(get("/")));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			assertEquals("render 3", text(cache.handle(get("/"))));
+			release.countDown();
+			assertEquals("render 2", text(slow.get(5, TimeUnit.SECONDS)));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Polls until the cache serves the expected body.
+	 */
+	static void awaitBody(Handler cache, Request request, String expected) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!text(cache.handle(request)).equals(expected) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(expected, text(cache.handle(request)));
+	}
+
+	@Test
+	public void servesStaleWhileRevalidatingInBackground() throws Exception {
+		List<String> seen = new ArrayList<>();
+		Handler route = Route.GET("/page", request -> {
+			synchronized (seen) {
+				seen.add(Thread.currentThread().getName() + " " + request.header("Accept-Language"));
+			}
+			return Response.response("render " + renders.incrementAndGet())
+					.withHeader("Cache-Control", "max-age=1, stale-while-revalidate=30");
+		});
+		ResponseCache cache = cache(route);
+		TestRoute.MockRequest request = new TestRoute.MockRequest("/page");
+		request.headers.put("Accept-Language", "en");
+		assertEquals("render 1", text(cache.handle(request)));
+		advance(2);
+
+		Response stale = cache.handle(request);
+		assertEquals("render 1", text(stale));
+		assertEquals("2", stale.header("Age"));
+		awaitBody(cache, request, "render 2");
+		assertEquals(2, renders.get());
+		synchronized (seen) {
+			assertTrue(seen.toString(), seen.get(1).startsWith("refresher"));
+			assertTrue(seen.toString(), seen.get(1).endsWith(" en"));
+		}
+	}
+
+	@Test
+	public void refreshesRunWithoutOuterState() throws Exception {
+		Handler route = request -> Response.response("render " + renders.incrementAndGet() + " " + request.state(String.class))
+				.withHeader("Cache-Control", "max-age=1, stale-while-revalidate=30");
+		ResponseCache cache = cache(route);
+		Handler outer = request -> {
+			request.setState("alice");
+			return cache.handle(request);
+		};
+		assertEquals("render 1 alice", text(outer.handle(RequestBuilder.get("/page").build())));
+		advance(2);
+		assertEquals("render 1 alice", text(outer.handle(RequestBuilder.get("/page").build())));
+		awaitBody(outer, RequestBuilder.get("/page").build(), "render 2 null");
+	}
+
+	@Test
+	public void keepsServingStaleWhenRefreshesAreRejected() throws Exception {
+		AtomicInteger rejected = new AtomicInteger();
+		ResponseCache cache = new ResponseCache(counting("max-age=1, stale-while-revalidate=30"), 100000, task -> {
+			if (rejected.incrementAndGet() == 1) {
+				throw new RejectedExecutionException();
+			}
+			task.run();
+		}, now::get);
+		cache.handle(get("/"));
+		advance(2);
+		assertEquals("render 1 null", text(cache.handle(get("/"))));
+		assertEquals(1, renders.get());
+		assertEquals("render 1 null", text(cache.handle(get("/"))));
+		assertEquals(2, renders.get());
+		assertEquals("render 2 null", text(cache.handle(get("/"))));
+	}
+
+	@Test
+	public void servesStaleIfError() throws Exception {
+		ResponseCache cache = cache(request -> {
+			int n = renders.incrementAndGet();
+			if (n == 2) {
+				throw new IllegalStateException("backend down");
+			} else if (n == 3) {
+				return Response.response(503, "unavailable");
+			}
+			return Response.response("render " + n).withHeader("Cache-Control", "max-age=1, stale-if-error=30");
+		});
+		cache.handle(get("/"));
+		advance(2);
+		assertEquals("render 1", text(cache.handle(get("/"))));
+		assertEquals("render 1", text(cache.handle(get("/"))));
+		assertEquals("render 4", text(cache.handle(get("/"))));
+		assertEquals("render 4", text(cache.handle(get("/"))));
+		assertEquals(4, renders.get());
+	}
+
+	@Test
+	public void failsWithoutStaleIfError() throws Exception {
+		ResponseCache cache = cache(request -> renders.incrementAndGet() == 1
+				? Response.response("ok").withHeader("Cache-Control", "max-age=1")
+				: Response.response(503, "unavailable"));
+		cache.handle(get("/"));
+		advance(2);
+		assertEquals(503, cache.handle(get("/")).status());
+	}
+
+	@Test
+	public void copiesRequests() {
+		Request original = RequestBuilder.get("/a/b").header("Accept", "text/html").queryParam("q", "1").urlParam("id", "2").build();
+		Request copy = RequestBuilder.from(original).build();
+		assertEquals(original.path(), copy.path());
+		assertEquals(original.uri(), copy.uri());
+		assertEquals("text/html", copy.header("Accept"));
+		assertEquals("1", copy.queryParam("q"));
+		assertEquals("2", copy.urlParam("id"));
+		assertEquals("1", copy.param("q"));
+		original.setState("outer");
+		assertNull(copy.state(String.class));
+
+		Request mock = RequestBuilder.from(new TestRoute.MockRequest("/page")).build();
+		assertEquals("/page", mock.path());
+		assertEquals("GET", mock.method());
+	}
+}
@@ -0,0 +1,94 @@
+package droute;
+
+import static droute.Response.response;
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class TestSessions {
+	final MemorySessionStore store = new MemorySessionStore();
+	final Handler handler = Sessions.wrap(request -> {
+		Session session = Sessions.get(request);
+		String set = request.queryParam("set");
+		if (request.queryParam("invalidate") != null) {
+			session.invalidate();
+		}
+		if (set != null) {
+			session.set("user", set.isEmpty() ? null : set);
+		}
+		return response(String.valueOf(session.get("user")));
+	}, store);
+
+	Response get(String cookie, String set) {
+		RequestBuilder builder = RequestBuilder.get("/");
+		if (cookie != null) {
+			builder.cookie("session", cookie);
+		}
+		if (set != null) {
+			builder.queryParam("set", set);
+		}
+		return handler.handle(builder.build());
+	}
+
+	static String sessionId(Response response) {
+		String setCookie = response.header("Set-Cookie");
+		assertNotNull(setCookie);
+		return setCookie.substring("session=".length(), setCookie.indexOf(';'));
+	}
+
+	@Test
+	public void cookieOnlySetWhenSessionChanges() {
+		Response response = get(null, null);
+		assertEquals("null", response.body());
+		assertNull(response.header("Set-Cookie"));
+		assertEquals(0, store.size());
+
+		response = get(null, "alice");
+		String id = sessionId(response);
+		assertTrue(Tokens.isSane(id));
+		assertTrue(response.header("Set-Cookie").contains("HttpOnly"));
+
+		response = get(id, null);
+		assertEquals("alice", response.body());
+		assertNull(response.header("Set-Cookie"));
+
+		response = get(id, "bob");
+		assertEquals("bob", response.body());
+		assertNull(response.header("Set-Cookie"));
+		assertEquals("bob", get(id, null).body());
+	}
+
+	@Test
+	public void invalidateIssuesFreshId() {
+		String id = sessionId(get(null, "alice"));
+		Response response = handler.handle(RequestBuilder.get("/").cookie("session", id)
+				.queryParam("invalidate", "1").queryParam("set", "mallory").build());
+		String newId = sessionId(response);
+		assertNotEquals(id, newId);
+		assertEquals("null", get(id, null).body());
+		assertEquals("mallory", get(newId, null).body());
+	}
+
+	@Test
+	public void emptiedSessionExpiresCookie() {
+		String id = sessionId(get(null, "alice"));
+		Response response = get(id, "");
+		assertTrue(response.header("Set-Cookie").contains("Max-Age=0"));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void storeEvictsIdleAndExcessSessions() throws InterruptedException {
+		MemorySessionStore small = new MemorySessionStore(Duration.ofMillis(50), 16);
+		for (int i = 0; i < 100; i++) {
+			small.save("id" + i, Collections.singletonMap("n", "" + i));
+		}
+		assertTrue(small.size() <= 16);
+		assertEquals("99", small.load("id99").get("n"));
+		Thread.sleep(100);
+		assertNull(small.load("id99"));
+	}
+}
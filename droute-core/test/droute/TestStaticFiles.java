@@ -0,0 +1,129 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestStaticFiles {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static Response get(Handler handler, String path) {
+		return handler.handle(new TestRoute.MockRequest(path));
+	}
+
+	static String text(Response response) {
+		return new String((byte[]) response.body(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void servesAndCachesFiles() throws IOException {
+		Path root = folder.getRoot().toPath();
+		Files.createDirectories(root.resolve("css"));
+		Files.write(root.resolve("css/site.css"), "body{}".getBytes(StandardCharsets.UTF_8));
+		try (StaticFiles files = Route.files("/static", root)) {
+			Response response = get(files, "/static/css/site.css");
+			assertEquals("body{}", text(response));
+			assertEquals("text/css", response.header("Content-Type"));
+			assertEquals("6", response.header("Content-Length"));
+			assertNotNull(response.header("ETag"));
+			assertSame(response, get(files, "/static/css/site.css"));
+			assertSame(Response.NEXT_HANDLER, get(files, "/static/css/missing.css"));
+			assertSame(Response.NEXT_HANDLER, get(files, "/static/css"));
+		}
+	}
+
+	@Test
+	public void refusesToLeaveRoot() throws IOException {
+		Path root = folder.newFolder("public").toPath();
+		Files.write(folder.getRoot().toPath().resolve("secret.txt"), "secret".getBytes(StandardCharsets.UTF_8));
+		try (StaticFiles files = Route.files("/static", root)) {
+			assertSame(Response.NEXT_HANDLER, get(files, "/static/../secret.txt"));
+			assertSame(Response.NEXT_HANDLER, get(files, "/static/a/../../secret.txt"));
+		}
+	}
+
+	@Test
+	public void refusesLinksOutOfRoot() throws IOException {
+		Path root = folder.newFolder("public").toPath();
+		Path outside = folder.newFolder("private").toPath();
+		Files.write(outside.resolve("secret.txt"), "secret".getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("page.txt"), "page".getBytes(StandardCharsets.UTF_8));
+		Files.createSymbolicLink(root.resolve("secret.txt"), outside.resolve("secret.txt"));
+		Files.createSymbolicLink(root.resolve("private"), outside);
+		Files.createSymbolicLink(root.resolve("alias.txt"), root.resolve("page.txt"));
+		try (StaticFiles files = Route.files("/static", root)) {
+			assertSame(Response.NEXT_HANDLER, get(files, "/static/secret.txt"));
+			assertSame(Response.NEXT_HANDLER, get(files, "/static/private/secret.txt"));
+			assertEquals("page", text(get(files, "/static/alias.txt")));
+		}
+	}
+
+	@Test
+	public void largeFilesAreSentFromDisk() throws IOException {
+		Path root = folder.getRoot().toPath();
+		Files.write(root.resolve("big.bin"), new byte[2048]);
+		try (StaticFiles files = new StaticFiles("/static", root, 10000, 1024)) {
+			Response response = get(files, "/static/big.bin");
+			assertEquals(root.resolve("big.bin").toRealPath(), response.body());
+			assertEquals("2048", response.header("Content-Length"));
+		}
+	}
+
+	@Test
+	public void changedFilesAreReloaded() throws Exception {
+		Path root = folder.getRoot().toPath();
+		Path file = root.resolve("app.js");
+		Files.write(file, "one".getBytes(StandardCharsets.UTF_8));
+		try (StaticFiles files = Route.files("/static", root)) {
+			assertEquals("one", text(get(files, "/static/app.js")));
+			Files.write(file, "two".getBytes(StandardCharsets.UTF_8));
+			long deadline = System.currentTimeMillis() + 15000;
+			while (text(get(files, "/static/app.js")).equals("one") && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals("two", text(get(files, "/static/app.js")));
+
+			Files.createDirectories(root.resolve("new"));
+			Thread.sleep(100);
+			Files.write(root.resolve("new/file.txt"), "a".getBytes(StandardCharsets.UTF_8));
+			assertEquals("a", text(get(files, "/static/new/file.txt")));
+			Files.write(root.resolve("new/file.txt"), "b".getBytes(StandardCharsets.UTF_8));
+			deadline = System.currentTimeMillis() + 15000;
+			while (text(get(files, "/static/new/file.txt")).equals("a") && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals("b", text(get(files, "/static/new/file.txt")));
+		}
+	}
+
+	@Test
+	public void linkedFilesAreReloaded() throws Exception {
+		Path root = folder.getRoot().toPath();
+		Files.createDirectories(root.resolve("sub"));
+		Files.write(root.resolve("page.txt"), "one".getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("sub/file.txt"), "one".getBytes(StandardCharsets.UTF_8));
+		Files.createSymbolicLink(root.resolve("alias.txt"), root.resolve("page.txt"));
+		Files.createSymbolicLink(root.resolve("linked"), root.resolve("sub"));
+		try (StaticFiles files = Route.files("/static", root)) {
+			assertEquals("one", text(get(files, "/static/alias.txt")));
+			assertEquals("one", text(get(files, "/static/linked/file.txt")));
+			Files.write(root.resolve("page.txt"), "two".getBytes(StandardCharsets.UTF_8));
+			Files.write(root.resolve("sub/file.txt"), "two".getBytes(StandardCharsets.UTF_8));
+			long deadline = System.currentTimeMillis() + 15000;
+			while ((text(get(files, "/static/alias.txt")).equals("one") || text(get(files, "/static/linked/file.txt")).equals("one"))
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals("two", text(get(files, "/static/alias.txt")));
+			assertEquals("two", text(get(files, "/static/linked/file.txt")));
+		}
+	}
+}
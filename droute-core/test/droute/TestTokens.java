@@ -0,0 +1,30 @@
+package droute;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestTokens {
+
+	@Test
+	public void generatedTokensAreSaneAndDistinct() {
+		Set<String> seen = new HashSet<>();
+		for (int i = 0; i < 1000; i++) {
+			String token = Tokens.generate();
+			assertTrue(token, Tokens.isSane(token));
+			assertTrue(seen.add(token));
+		}
+	}
+
+	@Test
+	public void isSane() {
+		assertTrue(Tokens.isSane("abcdefghijKLMNOP0-_9"));
+		assertFalse(Tokens.isSane(null));
+		assertFalse(Tokens.isSane("abcdefghijKLMNOP0-_"));
+		assertFalse(Tokens.isSane("abcdefghijKLMNOP0-_9a"));
+		assertFalse(Tokens.isSane("abcdefghijKLMNOP0+/9"));
+	}
+}
@@ -0,0 +1,60 @@
+package droute;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares token generation throughput against a single shared SecureRandom across
+ * several threads. Run with: java -cp target/classes:target/test-classes droute.TokensBenchmark [threads] [seconds]
+ */
+public class TokensBenchmark {
+	private static final SecureRandom shared = new SecureRandom();
+
+	static String sharedGenerate() {
+		byte[] bytes = new byte[15];
+		shared.nextBytes(bytes);
+		return Base64.getUrlEncoder().encodeToString(bytes);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		for (int round = 0; round < 2; round++) {
+			report("shared SecureRandom", threads, seconds, TokensBenchmark::sharedGenerate);
+			report("Tokens.generate", threads, seconds, Tokens::generate);
+		}
+	}
+
+	interface Generator {
+		String generate();
+	}
+
+	static void report(String name, int threads, int seconds, Generator generator) throws InterruptedException {
+		LongAdder count = new LongAdder();
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		List<Thread> workers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread(() -> {
+				int n = 0;
+				int sink = 0;
+				while ((n & 1023) != 0 || System.nanoTime() < deadline) {
+					sink += generator.generate().length();
+					n++;
+				}
+				count.add(n);
+				if (sink == 42) {
+					System.out.print("");
+				}
+			});
+			workers.add(t);
+			t.start();
+		}
+		for (Thread t : workers) {
+			t.join();
+		}
+		System.out.printf("%-20s %2d threads: %,12d tokens/s%n", name, threads, count.sum() / seconds);
+	}
+}
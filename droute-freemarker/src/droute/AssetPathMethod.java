@@ -0,0 +1,44 @@
+package droute;
+
+import java.util.List;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.utility.DeepUnwrap;
+
+/**
+ * Template method returning the fingerprinted URL of an asset, for use as
+ * ${asset("css/site.css")} once registered with
+ * config.setSharedVariable("asset", new AssetPathMethod(assets)). URLs are put under the
+ * context path of the "request" that FreeMarkerHandler adds to the model.
+ */
+public class AssetPathMethod implements TemplateMethodModelEx {
+	private final Assets assets;
+
+	public AssetPathMethod(Assets assets) {
+		this.assets = assets;
+	}
+
+	@Override
+	public Object exec(@SuppressWarnings("rawtypes") List arguments) throws TemplateModelException {
+		if (arguments.size() != 1 || !(arguments.get(0) instanceof TemplateScalarModel)) {
+			throw new TemplateModelException("asset expects a single path argument");
+		}
+		String path = ((TemplateScalarModel) arguments.get(0)).getAsString();
+		Request request = currentRequest();
+		return request != null ? assets.path(request, path) : assets.path(path);
+	}
+
+	private static Request currentRequest() throws TemplateModelException {
+		Environment env = Environment.getCurrentEnvironment();
+		if (env == null) {
+			return null;
+		}
+		TemplateModel model = env.getDataModel().get("request");
+		Object request = model != null ? DeepUnwrap.permissiveUnwrap(model) : null;
+		return request instanceof Request ? (Request) request : null;
+	}
+}
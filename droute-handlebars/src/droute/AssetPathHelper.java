@@ -0,0 +1,26 @@
+package droute;
+
+import java.io.IOException;
+
+import com.github.jknack.handlebars.Helper;
+import com.github.jknack.handlebars.Options;
+
+/**
+ * Helper returning the fingerprinted URL of an asset, for use as {{asset "css/site.css"}}
+ * once registered with handlebars.registerHelper("asset", new AssetPathHelper(assets)).
+ * URLs are put under the context path of the "request" that HandlebarsHandler adds to the
+ * template context.
+ */
+public class AssetPathHelper implements Helper<String> {
+	private final Assets assets;
+
+	public AssetPathHelper(Assets assets) {
+		this.assets = assets;
+	}
+
+	@Override
+	public CharSequence apply(String path, Options options) throws IOException {
+		Object request = options.get("request");
+		return request instanceof Request ? assets.path((Request) request, path) : assets.path(path);
+	}
+}
@@ -2,6 +2,7 @@ package droute;
 
 import java.io.IOException;
 
+import com.github.jknack.handlebars.Context;
 import com.github.jknack.handlebars.Handlebars;
 
 import droute.Handler;
@@ -33,7 +34,8 @@ public class HandlebarsHandler implements Handler {
 			String view = modelAndView.view();
 			if (view.endsWith(fileExtension)) {
 				try {
-					return response.withBody(handlebars.compile(view).apply(modelAndView.model()));
+					Context context = Context.newBuilder(modelAndView.model()).combine("request", request).build();
+					return response.withBody(handlebars.compile(view).apply(context));
 				} catch (IOException e) {
 					throw new RuntimeException(e);
 				}
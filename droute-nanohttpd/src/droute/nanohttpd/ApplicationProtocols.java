@@ -0,0 +1,54 @@
+package droute.nanohttpd;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Access to SSLSocket.setHandshakeApplicationProtocolSelector, which is looked up
+ * reflectively as it is missing from Java 8 runtimes before 8u251.
+ */
+final class ApplicationProtocols {
+	/**
+	 * ALPN support of the running Java runtime.
+	 */
+	static final ApplicationProtocols RUNTIME = new ApplicationProtocols(lookup());
+
+	private final Method setSelector;
+
+	/**
+	 * Uses setSelector to install selectors, or supports nothing if it is null.
+	 */
+	ApplicationProtocols(Method setSelector) {
+		this.setSelector = setSelector;
+	}
+
+	private static Method lookup() {
+		try {
+			return SSLSocket.class.getMethod("setHandshakeApplicationProtocolSelector", BiFunction.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	boolean isSupported() {
+		return setSelector != null;
+	}
+
+	void setSelector(SSLSocket socket, BiFunction<SSLSocket, List<String>, String> selector) throws IOException {
+		if (setSelector == null) {
+			throw new UnsupportedOperationException("this Java runtime does not support ALPN");
+		}
+		try {
+			setSelector.invoke(socket, selector);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("setting the ALPN selector failed", e.getCause());
+		}
+	}
+}
@@ -9,6 +9,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -29,7 +30,9 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +42,16 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 
 /**
  * A simple, tiny, nicely embeddable HTTP server in Java
@@ -134,6 +147,14 @@ public abstract class NanoHTTPD {
     private ServerSocket myServerSocket;
     private Set<Socket> openConnections = new HashSet<Socket>();
     private Thread myThread;
+    /**
+     * Set once shutdown has begun, keep-alive connections are closed after their current response.
+     */
+    private volatile boolean draining;
+    /**
+     * Number of requests currently being served, guarded by this.
+     */
+    private int activeRequests;
     /**
      * Pluggable strategy for asynchronously executing requests.
      */
@@ -142,6 +163,40 @@ public abstract class NanoHTTPD {
      * Pluggable strategy for creating and cleaning up temporary files.
      */
     private TempFileManagerFactory tempFileManagerFactory;
+    /**
+     * TLS context used to wrap accepted connections, or null to serve plain HTTP.
+     */
+    private SSLContext sslContext;
+    private String[] sslProtocols;
+    /**
+     * Optional ALPN hook choosing the application protocol from those offered by the client.
+     */
+    private BiFunction<SSLSocket, List<String>, String> applicationProtocolSelector;
+    /**
+     * ALPN support of the runtime, replaced in tests to act as an older runtime.
+     */
+    ApplicationProtocols applicationProtocols = ApplicationProtocols.RUNTIME;
+    /**
+     * Largest request line plus headers accepted, larger requests get a 431 response.
+     */
+    private int maxHeaderSize = HTTPSession.BUFSIZE;
+    /**
+     * Largest request body accepted, larger requests get a 413 response before the body is read.
+     */
+    private long maxBodySize = Long.MAX_VALUE;
+    /**
+     * Maximum time a single write to a client may block (in milliseconds), 0 to wait forever.
+     */
+    private int writeTimeout;
+    /**
+     * Minimum rate (in bytes per second) a client must accept response data at, 0 for no minimum.
+     */
+    private long minWriteRate;
+    /**
+     * Output streams of open connections, checked periodically by the write watchdog.
+     */
+    private final Set<WatchedOutputStream> watchedStreams = Collections.newSetFromMap(new ConcurrentHashMap<WatchedOutputStream, Boolean>());
+    private Timer writeWatchdog;
 
     /**
      * Constructs an HTTP server on given port.
@@ -222,27 +277,42 @@ public abstract class NanoHTTPD {
                         final Socket finalAccept = myServerSocket.accept();
                         registerConnection(finalAccept);
                         finalAccept.setSoTimeout(SOCKET_READ_TIMEOUT);
-                        final InputStream inputStream = finalAccept.getInputStream();
                         asyncRunner.exec(new Runnable() {
                             @Override
                             public void run() {
+                                Socket socket = finalAccept;
+                                InputStream inputStream = null;
                                 OutputStream outputStream = null;
                                 try {
-                                    outputStream = finalAccept.getOutputStream();
+                                    // The TLS handshake happens here rather than on the accept thread
+                                    // so a slow or malicious client can't hold up other connections.
+                                    if (sslContext != null) {
+                                        socket = secure(finalAccept);
+                                    }
+                                    inputStream = socket.getInputStream();
+                                    outputStream = socket.getOutputStream();
+                                    if (writeTimeout > 0 || minWriteRate > 0) {
+                                        outputStream = new WatchedOutputStream(outputStream, finalAccept);
+                                    }
                                     TempFileManager tempFileManager = tempFileManagerFactory.create();
-                                    HTTPSession session = new HTTPSession(tempFileManager, inputStream, outputStream, finalAccept.getInetAddress());
-                                    while (!finalAccept.isClosed()) {
+                                    HTTPSession session = new HTTPSession(tempFileManager, inputStream, outputStream, finalAccept.getInetAddress(), socket instanceof SSLSocket);
+                                    while (!socket.isClosed()) {
                                         session.execute();
                                     }
                                 } catch (Exception e) {
                                     // When the socket is closed by the client, we throw our own SocketException
                                     // to break the  "keep alive" loop above.
-                                    if (!(e instanceof SocketException && "NanoHttpd Shutdown".equals(e.getMessage()))) {
+                                    if (!(e instanceof SocketException && "NanoHttpd Shutdown".equals(e.getMessage()))
+                                            && !(e instanceof SSLException)) {
                                         e.printStackTrace();
                                     }
                                 } finally {
+                                    if (outputStream instanceof WatchedOutputStream) {
+                                        watchedStreams.remove(outputStream);
+                                    }
                                     safeClose(outputStream);
                                     safeClose(inputStream);
+                                    safeClose(socket);
                                     safeClose(finalAccept);
                                     unRegisterConnection(finalAccept);
                                 }
@@ -256,6 +326,33 @@ public abstract class NanoHTTPD {
         myThread.setDaemon(true);
         myThread.setName("NanoHttpd Main Listener");
         myThread.start();
+
+        if (writeTimeout > 0 || minWriteRate > 0) {
+            long period = writeTimeout > 0 ? Math.max(100, Math.min(writeTimeout / 4, 1000)) : 1000;
+            writeWatchdog = new Timer("NanoHttpd Write Watchdog", true);
+            writeWatchdog.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    closeSlowConnections();
+                }
+            }, period, period);
+        }
+    }
+
+    /**
+     * Layers TLS over an accepted connection and performs the server side of the handshake.
+     */
+    private SSLSocket secure(Socket socket) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, null, socket.getPort(), true);
+        sslSocket.setUseClientMode(false);
+        if (sslProtocols != null) {
+            sslSocket.setEnabledProtocols(sslProtocols);
+        }
+        if (applicationProtocolSelector != null) {
+            applicationProtocols.setSelector(sslSocket, applicationProtocolSelector);
+        }
+        sslSocket.startHandshake();
+        return sslSocket;
     }
 
     /**
@@ -263,6 +360,9 @@ public abstract class NanoHTTPD {
      */
     public void stop() {
         try {
+            if (writeWatchdog != null) {
+                writeWatchdog.cancel();
+            }
             safeClose(myServerSocket);
             closeAllConnections();
             if (myThread != null) {
@@ -273,6 +373,32 @@ public abstract class NanoHTTPD {
         }
     }
     
+    /**
+     * Gracefully shut down the server. Stops accepting new connections, answers any further
+     * requests on keep-alive connections with "Connection: close" and waits up to the given
+     * timeout for in-flight requests to complete before forcibly closing what remains.
+     */
+    public void shutdown(Duration timeout) {
+        draining = true;
+        safeClose(myServerSocket);
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (this) {
+            while (activeRequests > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        stop();
+    }
+
     public void startAndJoin() throws IOException {
     	start();
     	try {
@@ -301,6 +427,16 @@ public abstract class NanoHTTPD {
         openConnections.remove(socket);
     }
 
+    private synchronized void requestStarted() {
+        activeRequests++;
+    }
+
+    private synchronized void requestFinished() {
+        if (--activeRequests == 0) {
+            notifyAll();
+        }
+    }
+
     /**
      * Forcibly closes all connections that are open.
      */
@@ -437,6 +573,214 @@ public abstract class NanoHTTPD {
         this.asyncRunner = asyncRunner;
     }
 
+    // ------------------------------------------------------------------------------- //
+    //
+    // Request limits.
+    //
+    // ------------------------------------------------------------------------------- //
+
+    /**
+     * Sets the largest request line and headers, in bytes, the server will accept. Requests
+     * exceeding it are answered with 431 Request Header Fields Too Large. Defaults to 8KB.
+     */
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    /**
+     * Sets the largest request body, in bytes, the server will accept. Requests announcing
+     * a larger Content-Length are answered with 413 Payload Too Large without reading the
+     * body. Defaults to no limit.
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    // ------------------------------------------------------------------------------- //
+    //
+    // Write deadlines.
+    //
+    // ------------------------------------------------------------------------------- //
+
+    /**
+     * Time (in milliseconds) a client must have kept the server blocked writing before
+     * the minimum write rate is enforced.
+     */
+    private static final long MIN_WRITE_RATE_GRACE = 2000;
+
+    /**
+     * Largest slice handed to the socket in one write, so the watchdog can observe the
+     * progress of large writes to slow clients.
+     */
+    private static final int WRITE_SLICE = 4096;
+
+    /**
+     * Sets the maximum time (in milliseconds) a single write to a client may block before
+     * the connection is closed, releasing the thread serving it. Must be called before
+     * {@link #start()}. Defaults to 0, no limit.
+     */
+    public void setWriteTimeout(int writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * Sets the minimum rate (in bytes per second) at which a client must accept response
+     * data. Only time spent blocked on the client counts, so a handler which is itself slow
+     * to produce output isn't penalised. Must be called before {@link #start()}. Defaults to
+     * 0, no minimum.
+     */
+    public void setMinWriteRate(long minWriteRate) {
+        this.minWriteRate = minWriteRate;
+    }
+
+    /**
+     * Closes connections whose client has exceeded the write timeout or fallen below the
+     * minimum write rate. Closing the socket unblocks the writing thread with an exception.
+     */
+    private void closeSlowConnections() {
+        long now = System.nanoTime();
+        for (WatchedOutputStream stream : watchedStreams) {
+            if (stream.isTooSlow(now)) {
+                watchedStreams.remove(stream);
+                safeClose(stream.socket);
+            }
+        }
+    }
+
+    /**
+     * Tracks how long writes to a connection block and how much data gets through.
+     */
+    private class WatchedOutputStream extends FilterOutputStream {
+        private final Socket socket;
+        /**
+         * System.nanoTime() when the current write began, 0 when no write is in progress.
+         */
+        private volatile long writeStarted;
+        private volatile long blockedNanos;
+        private volatile long bytesWritten;
+
+        WatchedOutputStream(OutputStream out, Socket socket) {
+            super(out);
+            this.socket = socket;
+            watchedStreams.add(this);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = beginWrite();
+            try {
+                out.write(b);
+            } finally {
+                endWrite(start, 1);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, WRITE_SLICE);
+                long start = beginWrite();
+                try {
+                    out.write(b, off, n);
+                } finally {
+                    endWrite(start, n);
+                }
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = beginWrite();
+            try {
+                out.flush();
+            } finally {
+                endWrite(start, 0);
+            }
+        }
+
+        private long beginWrite() {
+            long start = System.nanoTime();
+            writeStarted = start == 0 ? 1 : start;
+            return start;
+        }
+
+        private void endWrite(long start, int written) {
+            writeStarted = 0;
+            blockedNanos += System.nanoTime() - start;
+            bytesWritten += written;
+        }
+
+        boolean isTooSlow(long now) {
+            long started = writeStarted;
+            if (started == 0) {
+                return false;
+            }
+            long current = now - started;
+            if (writeTimeout > 0 && current > TimeUnit.MILLISECONDS.toNanos(writeTimeout)) {
+                return true;
+            }
+            if (minWriteRate > 0) {
+                long blocked = blockedNanos + current;
+                if (blocked > TimeUnit.MILLISECONDS.toNanos(MIN_WRITE_RATE_GRACE)
+                        && bytesWritten < minWriteRate * (blocked / 1e9)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // ------------------------------------------------------------------------------- //
+    //
+    // TLS.
+    //
+    // ------------------------------------------------------------------------------- //
+
+    /**
+     * Serve HTTPS instead of plain HTTP. Each accepted connection is wrapped in TLS using the
+     * given context, so this works with any of the constructors including an inherited
+     * server socket. Must be called before {@link #start()}.
+     *
+     * @param sslContext   an initialized server-side TLS context.
+     * @param sslProtocols the protocols to enable, or null for the context's defaults.
+     */
+    public void makeSecure(SSLContext sslContext, String[] sslProtocols) {
+        this.sslContext = sslContext;
+        this.sslProtocols = sslProtocols;
+    }
+
+    /**
+     * Configures the server-side TLS session cache. Clients presenting a cached session
+     * perform an abbreviated handshake instead of a full key exchange.
+     *
+     * @param size           maximum number of cached sessions, 0 for no limit.
+     * @param timeoutSeconds how long a session may be resumed for, 0 for no limit.
+     */
+    public void setSessionCache(int size, int timeoutSeconds) {
+        if (sslContext == null) {
+            throw new IllegalStateException("makeSecure() must be called before configuring the session cache");
+        }
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        sessionContext.setSessionCacheSize(size);
+        sessionContext.setSessionTimeout(timeoutSeconds);
+    }
+
+    /**
+     * Pluggable ALPN negotiation. The selector is given the protocols offered by the client
+     * and returns the one to use, an empty string to proceed without ALPN or null to fail
+     * the handshake.
+     *
+     * @throws UnsupportedOperationException if the Java runtime has no ALPN support
+     */
+    public void setApplicationProtocolSelector(BiFunction<SSLSocket, List<String>, String> applicationProtocolSelector) {
+        if (applicationProtocolSelector != null && !applicationProtocols.isSupported()) {
+            throw new UnsupportedOperationException("this Java runtime does not support ALPN");
+        }
+        this.applicationProtocolSelector = applicationProtocolSelector;
+    }
+
     // ------------------------------------------------------------------------------- //
     //
     // Temp file handling strategy.
@@ -696,6 +1040,11 @@ public abstract class NanoHTTPD {
 
                 if (header != null) {
                     for (String key : header.keySet()) {
+                        // A connection that is about to be closed says so whatever the
+                        // handler asked for, otherwise clients would retry on a dead socket.
+                        if (!keepAlive && "connection".equalsIgnoreCase(key)) {
+                            continue;
+                        }
                         String value = header.get(key);
                         pw.print(key + ": " + value + "\r\n");
                     }
@@ -704,7 +1053,17 @@ public abstract class NanoHTTPD {
                 sendConnectionHeaderIfNotAlreadyPresent(pw, header, keepAlive);
                 long contentLength = getContentLength();
 
-                if (requestMethod != Method.HEAD && chunkedTransfer || contentLength == -1) {
+                if (data == null) {
+                    // Bodyless responses such as redirects. 1xx, 204 and 304 must not declare
+                    // a length, anything else gets an explicit zero so the client isn't left
+                    // waiting for a body.
+                    int code = status.getRequestStatus();
+                    if (code >= 200 && code != 204 && code != 304) {
+                        sendContentLengthHeaderIfNotAlreadyPresent(pw, header, 0);
+                    }
+                    pw.print("\r\n");
+                    pw.flush();
+                } else if (requestMethod != Method.HEAD && chunkedTransfer || contentLength == -1) {
                     sendAsChunked(outputStream, pw);
                 } else {
                     pw.print("\r\n");
@@ -724,12 +1083,10 @@ public abstract class NanoHTTPD {
         }
 
         protected void sendConnectionHeaderIfNotAlreadyPresent(PrintWriter pw, Map<String, String> header, boolean keepAlive) {
-            if (!headerAlreadySent(header, "connection")) {
-                if (keepAlive) {
-                    pw.print("Connection: keep-alive\r\n");
-                } else {
-                    pw.print("Connection: close\r\n");
-                }
+            if (!keepAlive) {
+                pw.print("Connection: close\r\n");
+            } else if (!headerAlreadySent(header, "connection")) {
+                pw.print("Connection: keep-alive\r\n");
             }
         }
 
@@ -794,10 +1151,11 @@ public abstract class NanoHTTPD {
          * Some HTTP response status codes
          */
         public enum Status implements IStatus {
-            SWITCH_PROTOCOL(101, "Switching Protocols"), OK(200, "OK"), CREATED(201, "Created"), ACCEPTED(202, "Accepted"), NO_CONTENT(204, "No Content"), PARTIAL_CONTENT(206, "Partial Content"), REDIRECT(301,
+            CONTINUE(100, "Continue"), SWITCH_PROTOCOL(101, "Switching Protocols"), OK(200, "OK"), CREATED(201, "Created"), ACCEPTED(202, "Accepted"), NO_CONTENT(204, "No Content"), PARTIAL_CONTENT(206, "Partial Content"), REDIRECT(301,
                 "Moved Permanently"), FOUND(302, "Found"), SEE_OTHER(303, "See Other"), NOT_MODIFIED(304, "Not Modified"), TEMPORARY_REDIRECT(307, "Temporary Redirect"), BAD_REQUEST(400, "Bad Request"), UNAUTHORIZED(401,
-                "Unauthorized"), FORBIDDEN(403, "Forbidden"), NOT_FOUND(404, "Not Found"), METHOD_NOT_ALLOWED(405, "Method Not Allowed"), RANGE_NOT_SATISFIABLE(416,
-                "Requested Range Not Satisfiable"), INTERNAL_ERROR(500, "Internal Server Error");
+                "Unauthorized"), FORBIDDEN(403, "Forbidden"), NOT_FOUND(404, "Not Found"), METHOD_NOT_ALLOWED(405, "Method Not Allowed"), PAYLOAD_TOO_LARGE(413, "Payload Too Large"),
+                RANGE_NOT_SATISFIABLE(416, "Requested Range Not Satisfiable"), REQUEST_HEADER_FIELDS_TOO_LARGE(431,
+                "Request Header Fields Too Large"), INTERNAL_ERROR(500, "Internal Server Error");
             private final int requestStatus;
             private final String description;
 
@@ -899,7 +1257,13 @@ public abstract class NanoHTTPD {
         InputStream getInputStream();
 
         /**
-         * Adds the files in the request body to the files map.
+         * @return true if the request arrived over TLS.
+         */
+        boolean isSecure();
+
+        /**
+         * Adds the files in the request body to the files map. If the client sent
+         * "Expect: 100-continue" the interim response is sent before reading.
          * @arg files - map to modify
          */
         void parseBody(Map<String, String> files) throws IOException, ResponseException;
@@ -919,17 +1283,30 @@ public abstract class NanoHTTPD {
         private Map<String, String> headers;
         private String queryParameterString;
         private boolean http11 = false;
+        private final boolean secure;
+        private final int headerBufferSize;
+        private long contentLength;
+        private boolean expectContinue;
+        private boolean bodyConsumed;
 
         public HTTPSession(TempFileManager tempFileManager, InputStream inputStream, OutputStream outputStream) {
             this.tempFileManager = tempFileManager;
-            this.inputStream = new PushbackInputStream(inputStream, BUFSIZE);
+            this.headerBufferSize = maxHeaderSize;
+            this.inputStream = new PushbackInputStream(inputStream, headerBufferSize);
             this.outputStream = outputStream;
+            this.secure = false;
         }
 
         public HTTPSession(TempFileManager tempFileManager, InputStream inputStream, OutputStream outputStream, InetAddress inetAddress) {
+            this(tempFileManager, inputStream, outputStream, inetAddress, false);
+        }
+
+        public HTTPSession(TempFileManager tempFileManager, InputStream inputStream, OutputStream outputStream, InetAddress inetAddress, boolean secure) {
             this.tempFileManager = tempFileManager;
-            this.inputStream = new PushbackInputStream(inputStream, BUFSIZE);
+            this.headerBufferSize = maxHeaderSize;
+            this.inputStream = new PushbackInputStream(inputStream, headerBufferSize);
             this.outputStream = outputStream;
+            this.secure = secure;
             String remoteIp = inetAddress.isLoopbackAddress() || inetAddress.isAnyLocalAddress() ? "127.0.0.1" : inetAddress.getHostAddress().toString();
             headers = new HashMap<String, String>();
 
@@ -939,18 +1316,19 @@ public abstract class NanoHTTPD {
 
         @Override
         public void execute() throws IOException {
+            boolean active = false;
             try {
-                // Read the first 8192 bytes.
+                // Read the first maxHeaderSize (by default 8192) bytes.
                 // The full header should fit in here.
                 // Apache's default header limit is 8KB.
                 // Do NOT assume that a single read will get the entire header at once!
-                byte[] buf = new byte[BUFSIZE];
+                byte[] buf = new byte[headerBufferSize];
                 splitbyte = 0;
                 rlen = 0;
                 {
                     int read = -1;
                     try {
-                        read = inputStream.read(buf, 0, BUFSIZE);
+                        read = inputStream.read(buf, 0, headerBufferSize);
                     } catch (Exception e) {
                         safeClose(inputStream);
                         safeClose(outputStream);
@@ -967,16 +1345,25 @@ public abstract class NanoHTTPD {
                         splitbyte = findHeaderEnd(buf, rlen);
                         if (splitbyte > 0)
                             break;
-                        read = inputStream.read(buf, rlen, BUFSIZE - rlen);
+                        read = inputStream.read(buf, rlen, headerBufferSize - rlen);
                     }
                 }
 
+                if (splitbyte == 0 && rlen == headerBufferSize) {
+                    throw new ResponseException(Response.Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "REQUEST HEADER FIELDS TOO LARGE");
+                }
+
                 if (splitbyte < rlen) {
                     inputStream.unread(buf, splitbyte, rlen - splitbyte);
                 }
 
-                parms = new MultiMap();
-                formParms = new MultiMap();
+                requestStarted();
+                active = true;
+
+                // Parameters are decoded on demand by getParms() and parseBody().
+                parms = null;
+                formParms = null;
+                queryParameterString = null;
                 if(null == headers) {
                     headers = new HashMap<String, String>();
                 } else {
@@ -986,9 +1373,9 @@ public abstract class NanoHTTPD {
                 // Create a BufferedReader for parsing the header.
                 BufferedReader hin = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buf, 0, rlen)));
 
-                // Decode the header into parms and header java properties
+                // Decode the header into header java properties
                 Map<String, String> pre = new HashMap<String, String>();
-                decodeHeader(hin, pre, parms, headers);
+                decodeHeader(hin, pre, headers);
 
                 method = Method.lookup(pre.get("method"));
                 if (method == null) {
@@ -997,6 +1384,22 @@ public abstract class NanoHTTPD {
 
                 uri = pre.get("uri");
 
+                // Reject oversized bodies up front rather than spooling them to disk.
+                contentLength = 0;
+                bodyConsumed = false;
+                String contentLengthHeader = headers.get("content-length");
+                if (contentLengthHeader != null) {
+                    try {
+                        contentLength = Long.parseLong(contentLengthHeader.trim());
+                    } catch (NumberFormatException e) {
+                        throw new ResponseException(Response.Status.BAD_REQUEST, "BAD REQUEST: Invalid Content-Length.");
+                    }
+                    if (contentLength > maxBodySize) {
+                        throw new ResponseException(Response.Status.PAYLOAD_TOO_LARGE, "PAYLOAD TOO LARGE");
+                    }
+                }
+                expectContinue = http11 && "100-continue".equalsIgnoreCase(headers.get("expect"));
+
                 boolean keepAlive = http11;
                 String connection = headers.get("connection");
                 if ("close".equals(connection)) {
@@ -1011,6 +1414,14 @@ public abstract class NanoHTTPD {
                     throw new ResponseException(Response.Status.INTERNAL_ERROR, "SERVER INTERNAL ERROR: Serve() returned a null response.");
                 }
                 r.setRequestMethod(method);
+                if (draining) {
+                    keepAlive = false;
+                }
+                // The handler didn't want the body so rather than draining it we close
+                // the connection. A client waiting on 100-continue never sends it at all.
+                if (contentLength > 0 && !bodyConsumed) {
+                    keepAlive = false;
+                }
                 r.send(outputStream, keepAlive);
                 if (!keepAlive) {
                     safeClose(outputStream);
@@ -1032,6 +1443,9 @@ public abstract class NanoHTTPD {
                 safeClose(outputStream);
             } finally {
                 tempFileManager.clear();
+                if (active) {
+                    requestFinished();
+                }
             }
         }
 
@@ -1040,12 +1454,21 @@ public abstract class NanoHTTPD {
             RandomAccessFile randomAccessFile = null;
             BufferedReader in = null;
             try {
+                if (contentLength > maxBodySize) {
+                    throw new ResponseException(Response.Status.PAYLOAD_TOO_LARGE, "PAYLOAD TOO LARGE");
+                }
+                if (expectContinue) {
+                    outputStream.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    outputStream.flush();
+                    expectContinue = false;
+                }
+                bodyConsumed = true;
 
                 randomAccessFile = getTmpBucket();
 
                 long size;
                 if (headers.containsKey("content-length")) {
-                    size = Integer.parseInt(headers.get("content-length"));
+                    size = contentLength;
                 } else if (splitbyte < rlen) {
                     size = rlen - splitbyte;
                 } else {
@@ -1097,7 +1520,7 @@ public abstract class NanoHTTPD {
                             boundary = boundary.substring(1, boundary.length() - 1);
                         }
 
-                        decodeMultipartData(boundary, fbuf, in, formParms, files);
+                        decodeMultipartData(boundary, fbuf, in, getFormParms(), files);
                     } else {
                         String postLine = "";
                         StringBuilder postLineBuffer = new StringBuilder();
@@ -1111,7 +1534,7 @@ public abstract class NanoHTTPD {
                         postLine = postLineBuffer.toString().trim();
                         // Handle application/x-www-form-urlencoded
                         if ("application/x-www-form-urlencoded".equalsIgnoreCase(contentType)) {
-                        	decodeParms(postLine, formParms);
+                        	decodeParms(postLine, getFormParms());
                         } else if (postLine.length() != 0) {
                         	// Special case for raw POST data => create a special files entry "postData" with raw content data
                         	files.put("postData", postLine);
@@ -1129,7 +1552,7 @@ public abstract class NanoHTTPD {
         /**
          * Decodes the sent headers and loads the data into Key/value pairs
          */
-        private void decodeHeader(BufferedReader in, Map<String, String> pre, MultiMap parms, Map<String, String> headers)
+        private void decodeHeader(BufferedReader in, Map<String, String> pre, Map<String, String> headers)
             throws ResponseException {
             try {
                 // Read the request line
@@ -1151,10 +1574,10 @@ public abstract class NanoHTTPD {
 
                 String uri = st.nextToken();
 
-                // Decode parameters from the URI
+                // Split off the query string, it's decoded by getParms() if needed
                 int qmi = uri.indexOf('?');
                 if (qmi >= 0) {
-                    decodeParms(uri.substring(qmi + 1), parms);
+                    queryParameterString = uri.substring(qmi + 1);
                     uri = decodePercent(uri.substring(0, qmi));
                 } else {
                     uri = decodePercent(uri);
@@ -1353,11 +1776,9 @@ public abstract class NanoHTTPD {
          */
         private void decodeParms(String parms, MultiMap p) {
             if (parms == null) {
-                queryParameterString = "";
                 return;
             }
 
-            queryParameterString = parms;
             StringTokenizer st = new StringTokenizer(parms, "&");
             while (st.hasMoreTokens()) {
                 String e = st.nextToken();
@@ -1373,11 +1794,18 @@ public abstract class NanoHTTPD {
 
         @Override
         public final MultiMap getParms() {
+            if (parms == null) {
+                parms = new MultiMap();
+                decodeParms(queryParameterString, parms);
+            }
             return parms;
         }
         
         @Override
         public final MultiMap getFormParms() {
+            if (formParms == null) {
+                formParms = new MultiMap();
+            }
             return formParms;
         }
 
@@ -1404,6 +1832,11 @@ public abstract class NanoHTTPD {
         public final InputStream getInputStream() {
             return inputStream;
         }
+
+        @Override
+        public final boolean isSecure() {
+            return secure;
+        }
     }
 
 
@@ -1,55 +1,80 @@
 package droute.nanohttpd;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import droute.Headers;
 import droute.MultiMap;
 import droute.Request;
+import droute.RequestState;
 import droute.nanohttpd.NanoHTTPD.IHTTPSession;
+import droute.nanohttpd.NanoHTTPD.ResponseException;
 
+/**
+ * A Request backed by a NanoHTTPD session. Everything beyond the method and path is
+ * computed on first use, so handlers only pay for the parts of the request they read.
+ */
 public class NanoRequest implements Request {
 
 	private final IHTTPSession raw;
-	private final MultiMap params, urlParams, queryParams, formParams;
-    private final Map<String,String> headers;
-	private final Map<Class<?>,Object> state;
-	private final URI uri;
+	private final String path;
 	private final String contextPath;
-	private final Map<String,String> files;
-	
+	private MultiMap params, urlParams;
+	private Map<String,String> headers;
+	private final RequestState state = new RequestState();
+	private URI uri;
+	private Map<String,String> files;
+
+	/**
+	 * Creates a request whose body is read from the session only when the handler first
+	 * asks for form parameters or the post body.
+	 */
+	public NanoRequest(IHTTPSession session) {
+		this(session, null);
+	}
+
 	public NanoRequest(IHTTPSession session, Map<String, String> files) {
 		this.raw = session;
 		this.files = files;
-		params = new MultiMap();
-        params.putAll(session.getParms());
-		params.putAll(session.getFormParms());
-		queryParams = session.getParms();
-		formParams = session.getFormParms();
-		urlParams = new MultiMap();
-		headers = new Headers(session.getHeaders());
-		state = new HashMap<>();
 		String path = session.getUri();
-		String xForwardedPath = headers.get("x-forwarded-path");
+		String xForwardedPath = session.getHeaders().get("x-forwarded-path");
 		if (xForwardedPath != null && path.startsWith(xForwardedPath)) {
 			path = path.substring(xForwardedPath.length());
 			contextPath = xForwardedPath + "/";
 		} else {
 			contextPath = "/";
 		}
-		try {
-			uri = new URI("http", headers.get("Host"), path, session.getQueryParameterString(), null);
-		} catch (URISyntaxException e) {
-			throw new RuntimeException(e);
+		this.path = path;
+	}
+
+	/**
+	 * Reads and decodes the request body if that hasn't happened yet.
+	 */
+	private void parseBody() {
+		if (files == null) {
+			files = new HashMap<>();
+			try {
+				raw.parseBody(files);
+			} catch (IOException e) {
+				throw new BodyReadException(e);
+			} catch (ResponseException e) {
+				throw new BodyException(e);
+			}
 		}
 	}
 
 	public String postBody() {
+		parseBody();
 		return files.get("postBody");
 	}
-	
+
 	@Override
 	public String method() {
 		return raw.getMethod().name();
@@ -57,29 +82,36 @@ public class NanoRequest implements Request {
 
 	@Override
 	public String path() {
-		return uri.getPath();
+		return path;
 	}
 
 	@Override
 	public MultiMap params() {
+		if (params == null) {
+			params = new Params();
+		}
 		return params;
 	}
 
 	@Override
 	public MultiMap urlParams() {
+		if (urlParams == null) {
+			urlParams = new MultiMap();
+		}
 		return urlParams;
 	}
 
 	@Override
 	public MultiMap queryParams() {
-		return queryParams;
+		return raw.getParms();
 	}
 
 	@Override
 	public MultiMap formParams() {
-		return formParams;
+		parseBody();
+		return raw.getFormParms();
 	}
-	
+
 	@Override
 	public IHTTPSession raw() {
 		return raw;
@@ -92,28 +124,140 @@ public class NanoRequest implements Request {
 
 	@Override
 	public Map<String, String> headers() {
+		if (headers == null) {
+			headers = new Headers(raw.getHeaders());
+		}
 		return headers;
 	}
 
 	@Override
 	public void setState(Object state) {
-		this.state.put(state.getClass(), state);
+		this.state.set(state);
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T state(Class<T> stateType) {
-		return (T)this.state.get(stateType);
+		return state.get(stateType);
 	}
 
 	@Override
 	public URI uri() {
+		if (uri == null) {
+			try {
+				uri = new URI(raw.isSecure() ? "https" : "http", raw.getHeaders().get("host"), path, raw.getQueryParameterString(), null);
+			} catch (URISyntaxException e) {
+				throw new RuntimeException(e);
+			}
+		}
 		return uri;
 	}
 
 	@Override
 	public URI contextUri() {
-		return uri.resolve(contextPath());
+		return uri().resolve(contextPath());
+	}
+
+	/**
+	 * The combined params map. Entries put directly, such as the url params added by Route,
+	 * are held in this map itself while query and form params are consulted on lookup rather
+	 * than copied in, so they are only decoded once a handler actually reads a parameter.
+	 * Iteration works over a merged snapshot.
+	 */
+	private class Params extends MultiMap {
+
+		@Override
+		public List<String> get(Object key) {
+			List<String> query = queryParams().get(key);
+			List<String> form = formParams().get(key);
+			List<String> local = super.get(key);
+			if (form == null && local == null) {
+				return query;
+			} else if (query == null && local == null) {
+				return form;
+			} else if (query == null && form == null) {
+				return local;
+			}
+			List<String> merged = new ArrayList<>();
+			if (query != null) {
+				merged.addAll(query);
+			}
+			if (form != null) {
+				merged.addAll(form);
+			}
+			if (local != null) {
+				merged.addAll(local);
+			}
+			return merged;
+		}
+
+		@Override
+		public String getFirst(String key) {
+			String value = queryParams().getFirst(key);
+			if (value == null) {
+				value = formParams().getFirst(key);
+				if (value == null) {
+					value = super.getFirst(key);
+				}
+			}
+			return value;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return queryParams().containsKey(key) || formParams().containsKey(key) || super.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return merged().size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return queryParams().isEmpty() && formParams().isEmpty() && super.isEmpty();
+		}
+
+		@Override
+		public Set<Entry<String, List<String>>> entrySet() {
+			return merged().entrySet();
+		}
+
+		private MultiMap merged() {
+			MultiMap merged = new MultiMap();
+			merged.putAll(queryParams());
+			merged.putAll(formParams());
+			for (Entry<String, List<String>> entry : super.entrySet()) {
+				for (String value : entry.getValue()) {
+					merged.put(entry.getKey(), value);
+				}
+			}
+			return merged;
+		}
+	}
+
+	/**
+	 * Thrown when the request body can't be read while a handler is reading it, so that the
+	 * server can tell it apart from I/O failures in the handler's own work.
+	 */
+	@SuppressWarnings("serial")
+	static class BodyReadException extends UncheckedIOException {
+		BodyReadException(IOException cause) {
+			super(cause.getMessage(), cause);
+		}
 	}
 
+	/**
+	 * Thrown when the request body is rejected while a handler is reading it.
+	 */
+	@SuppressWarnings("serial")
+	static class BodyException extends RuntimeException {
+		BodyException(ResponseException cause) {
+			super(cause.getMessage(), cause);
+		}
+
+		@Override
+		public ResponseException getCause() {
+			return (ResponseException) super.getCause();
+		}
+	}
 }
@@ -7,12 +7,16 @@ import droute.nanohttpd.NanoHTTPD.Response.Status;
 
 import java.io.*;
 import java.net.ServerSocket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static droute.Response.response;
@@ -43,36 +47,75 @@ public class NanoServer extends NanoHTTPD {
 	
 	@Override
 	public Response serve(IHTTPSession session) {
-		Map<String,String> files = new HashMap<>();
-		/*if ("application/x-www-form-urlencoded".equalsIgnoreCase(session
-				.getHeaders().get("content-type"))) {*/
-			try {
-				session.parseBody(files);
-			} catch (IOException ioe) {
-				StringWriter sw = new StringWriter();
-				ioe.printStackTrace(new PrintWriter(sw));
-				return new Response(Response.Status.INTERNAL_ERROR,
-						MIME_PLAINTEXT, "SERVER INTERNAL ERROR: IOException: "
-								+ ioe.getMessage() + "\n\n" + sw);
-			} catch (ResponseException re) {
-				return new Response(re.getStatus(), MIME_PLAINTEXT,
-						re.getMessage());
-			}
-		//}
-		droute.Response response = handler.handle(new NanoRequest(session, files));
+		droute.Response response;
+		try {
+			// The body is parsed lazily so routing happens before it's read. A request
+			// that doesn't match any route never causes its body to be received.
+			response = handler.handle(new NanoRequest(session));
+		} catch (NanoRequest.BodyReadException e) {
+			logger.log(Level.WARNING, "Reading the request body failed", e.getCause());
+			return new Response(Response.Status.INTERNAL_ERROR,
+					MIME_PLAINTEXT, "SERVER INTERNAL ERROR: the request body could not be read");
+		} catch (NanoRequest.BodyException e) {
+			ResponseException re = e.getCause();
+			return new Response(re.getStatus(), MIME_PLAINTEXT,
+					re.getMessage());
+		}
 		Streamable body = streamify(response.body());
 		Response nanoResponse = new Response(lookupStatus(response.status()), body);
 		for (Entry<String, String> entry : response.headers().entrySet()) {
 			nanoResponse.addHeader(entry.getKey(), entry.getValue());
 		}
-		if (response.header("Content-Length") != null || body instanceof ByteArrayInputStream) {
-			nanoResponse.setChunkedTransfer(false);			
-		} else {
-			nanoResponse.setChunkedTransfer(true);
+		boolean fixedLength = response.header("Content-Length") != null;
+		if (!fixedLength) {
+			long length = knownLength(response.body());
+			if (length >= 0) {
+				nanoResponse.addHeader("Content-Length", Long.toString(length));
+				fixedLength = true;
+			}
 		}
+		nanoResponse.setChunkedTransfer(!fixedLength);
 		return nanoResponse;
 	}
 	
+	/**
+	 * Returns the length of bodies whose size is known up front, or -1.
+	 */
+	private static long knownLength(Object body) {
+		if (body instanceof byte[]) {
+			return ((byte[]) body).length;
+		} else if (body instanceof Path) {
+			try {
+				return Files.size((Path) body);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else if (body instanceof FileChannel) {
+			try {
+				return ((FileChannel) body).size();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Sends the whole of a file, regardless of the channel's position.
+	 */
+	private static void transfer(FileChannel channel, OutputStream out, Object body) throws IOException {
+		WritableByteChannel target = Channels.newChannel(out);
+		long position = 0;
+		long size = channel.size();
+		while (position < size) {
+			long n = channel.transferTo(position, size - position, target);
+			if (n <= 0) {
+				throw new IOException(body + " was truncated while being sent");
+			}
+			position += n;
+		}
+	}
+
 	private static Throwable rootCause(Throwable t) {
 		while (t.getCause() != null) {
 			t = t.getCause();
@@ -96,6 +139,20 @@ public class NanoServer extends NanoHTTPD {
 					out.write(buf, 0, len);
 				}
 			};
+		} else if (obj instanceof Path) {
+			return (out) -> {
+				try (FileChannel channel = FileChannel.open((Path) obj)) {
+					transfer(channel, out, obj);
+				}
+			};
+		} else if (obj instanceof FileChannel) {
+			return (out) -> {
+				try (FileChannel channel = (FileChannel) obj) {
+					transfer(channel, out, obj);
+				}
+			};
+		} else if (obj instanceof byte[]) {
+			return (out) -> out.write((byte[]) obj);
 		} else if (obj instanceof String) {
 			return (out) -> out.write(((String)obj).getBytes(StandardCharsets.UTF_8));
 		} else {
@@ -0,0 +1,127 @@
+package droute.nanohttpd;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Speaks HTTP/1.1 to a server over a plain socket so tests can see exactly what is on the wire.
+ */
+class RawClient implements Closeable {
+	/**
+	 * A status code and headers, with header names lower cased.
+	 */
+	static class Head {
+		final int status;
+		final Map<String,String> headers = new HashMap<>();
+
+		Head(int status) {
+			this.status = status;
+		}
+
+		String header(String name) {
+			return headers.get(name.toLowerCase());
+		}
+	}
+
+	final Socket socket;
+	private final InputStream in;
+
+	RawClient(NanoHTTPD server) throws IOException {
+		this(server, 0);
+	}
+
+	/**
+	 * Connects with the given receive buffer size, or the default if 0.
+	 */
+	RawClient(NanoHTTPD server, int receiveBufferSize) throws IOException {
+		socket = new Socket();
+		if (receiveBufferSize > 0) {
+			socket.setReceiveBufferSize(receiveBufferSize);
+		}
+		socket.connect(new java.net.InetSocketAddress("127.0.0.1", server.getListeningPort()));
+		socket.setSoTimeout(5000);
+		in = new BufferedInputStream(socket.getInputStream());
+	}
+
+	void send(String data) throws IOException {
+		socket.getOutputStream().write(data.getBytes(StandardCharsets.UTF_8));
+		socket.getOutputStream().flush();
+	}
+
+	private String readLine() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				throw new EOFException("connection closed after " + line);
+			}
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+		return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	Head readHead() throws IOException {
+		String status = readLine();
+		Head head = new Head(Integer.parseInt(status.split(" ")[1]));
+		for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+			int colon = line.indexOf(':');
+			head.headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+		}
+		return head;
+	}
+
+	private byte[] readFully(int length) throws IOException {
+		byte[] data = new byte[length];
+		for (int n = 0; n < length;) {
+			int read = in.read(data, n, length - n);
+			if (read == -1) {
+				throw new EOFException();
+			}
+			n += read;
+		}
+		return data;
+	}
+
+	/**
+	 * Reads a body sent with either a Content-Length or chunked transfer encoding.
+	 */
+	String readBody(Head head) throws IOException {
+		if (!"chunked".equals(head.header("Transfer-Encoding"))) {
+			return new String(readFully(Integer.parseInt(head.header("Content-Length"))), StandardCharsets.UTF_8);
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (int size; (size = Integer.parseInt(readLine().trim(), 16)) > 0;) {
+			body.write(readFully(size));
+			readLine();
+		}
+		readLine();
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * True if the server closed the connection rather than sending anything more.
+	 */
+	boolean isClosedByServer() throws IOException {
+		try {
+			return in.read() == -1;
+		} catch (SocketException e) {
+			return true;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,101 @@
+package droute.nanohttpd;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import droute.MultiMap;
+import droute.nanohttpd.NanoHTTPD.IHTTPSession;
+import droute.nanohttpd.NanoHTTPD.Method;
+import droute.nanohttpd.NanoHTTPD.Response;
+import droute.nanohttpd.NanoHTTPD.ResponseException;
+
+public class TestNanoServer {
+	/**
+	 * A POST to /form whose body fails to arrive.
+	 */
+	static class BrokenBodySession implements IHTTPSession {
+		final Map<String,String> headers = new HashMap<>();
+
+		@Override
+		public void execute() {
+		}
+
+		@Override
+		public MultiMap getFormParms() {
+			return new MultiMap();
+		}
+
+		@Override
+		public MultiMap getParms() {
+			return new MultiMap();
+		}
+
+		@Override
+		public Map<String,String> getHeaders() {
+			return headers;
+		}
+
+		@Override
+		public String getUri() {
+			return "/form";
+		}
+
+		@Override
+		public String getQueryParameterString() {
+			return null;
+		}
+
+		@Override
+		public Method getMethod() {
+			return Method.POST;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return null;
+		}
+
+		@Override
+		public boolean isSecure() {
+			return false;
+		}
+
+		@Override
+		public void parseBody(Map<String,String> files) throws IOException, ResponseException {
+			throw new IOException("connection reset");
+		}
+	}
+
+	static String body(Response response) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		response.getData().writeTo(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void bodyReadFailuresAreServerErrorsWithoutTraces() throws IOException {
+		NanoServer server = new NanoServer(request -> droute.Response.response(request.postBody()), 0);
+		Response response = server.serve(new BrokenBodySession());
+		assertEquals(Response.Status.INTERNAL_ERROR, response.getStatus());
+		String body = body(response);
+		assertFalse(body, body.contains("connection reset"));
+		assertFalse(body, body.contains("\tat "));
+	}
+
+	@Test(expected = UncheckedIOException.class)
+	public void handlerFailuresAreNotTreatedAsBodyFailures() {
+		NanoServer server = new NanoServer(request -> {
+			throw new UncheckedIOException(new IOException("database unreachable"));
+		}, 0);
+		server.serve(new BrokenBodySession());
+	}
+}
@@ -0,0 +1,101 @@
+package droute.nanohttpd;
+
+import static droute.Response.response;
+import static droute.Route.POST;
+import static droute.Route.routes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import droute.nanohttpd.RawClient.Head;
+
+public class TestRequestLimits {
+	final AtomicInteger handled = new AtomicInteger();
+	NanoServer server;
+
+	@Before
+	public void start() throws IOException {
+		server = new NanoServer(routes(
+				POST("/echo", request -> {
+					handled.incrementAndGet();
+					return response(request.formParam("text"));
+				}),
+				POST("/ignore", request -> {
+					handled.incrementAndGet();
+					return response("ignored");
+				})), "127.0.0.1", 0);
+		server.setMaxHeaderSize(1024);
+		server.setMaxBodySize(100);
+		server.start();
+	}
+
+	@After
+	public void stop() {
+		server.stop();
+	}
+
+	static String post(String path, int contentLength) {
+		return "POST " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+				+ "Content-Type: application/x-www-form-urlencoded\r\n"
+				+ "Content-Length: " + contentLength + "\r\nExpect: 100-continue\r\n\r\n";
+	}
+
+	@Test
+	public void oversizedHeadersAreRejected() throws IOException {
+		StringBuilder request = new StringBuilder("GET /echo HTTP/1.1\r\nX-Padding: ");
+		// Exactly the limit with no end of headers in sight, so nothing is left unread.
+		while (request.length() < 1024) {
+			request.append('x');
+		}
+		try (RawClient client = new RawClient(server)) {
+			client.send(request.toString());
+			Head head = client.readHead();
+			assertEquals(431, head.status);
+			assertEquals("close", head.header("Connection"));
+		}
+		assertEquals(0, handled.get());
+	}
+
+	@Test
+	public void oversizedBodiesAreRejectedBeforeBeingSent() throws IOException {
+		try (RawClient client = new RawClient(server)) {
+			client.send(post("/echo", 101));
+			// The client hasn't sent the body, nor been asked to.
+			Head head = client.readHead();
+			assertEquals(413, head.status);
+			assertEquals("close", head.header("Connection"));
+		}
+		assertEquals(0, handled.get());
+	}
+
+	@Test
+	public void continueIsSentWhenTheBodyIsRead() throws IOException {
+		try (RawClient client = new RawClient(server)) {
+			client.send(post("/echo", 10));
+			assertEquals(100, client.readHead().status);
+			client.send("text=hello");
+			Head head = client.readHead();
+			assertEquals(200, head.status);
+			assertEquals("keep-alive", head.header("Connection"));
+			assertEquals("hello", client.readBody(head));
+		}
+	}
+
+	@Test
+	public void continueIsNotSentWhenTheBodyIsIgnored() throws IOException {
+		try (RawClient client = new RawClient(server)) {
+			client.send(post("/ignore", 10));
+			Head head = client.readHead();
+			assertEquals(200, head.status);
+			// The unread body would otherwise be taken as the next request.
+			assertEquals("close", head.header("Connection"));
+			assertEquals("ignored", client.readBody(head));
+			assertTrue(client.isClosedByServer());
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package droute.nanohttpd;
+
+import static droute.Response.response;
+import static droute.Route.GET;
+import static droute.Route.routes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import droute.nanohttpd.RawClient.Head;
+
+public class TestShutdown {
+	final CountDownLatch started = new CountDownLatch(1);
+	final CountDownLatch release = new CountDownLatch(1);
+	final CountDownLatch stopped = new CountDownLatch(1);
+	NanoServer server;
+
+	@Before
+	public void start() throws IOException {
+		server = new NanoServer(routes(
+				GET("/fast", request -> response("fast")),
+				GET("/sticky", request -> response("sticky").withHeader("Connection", "keep-alive")),
+				GET("/slow", request -> {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					return response("slow");
+				})), "127.0.0.1", 0);
+		server.start();
+	}
+
+	@After
+	public void stop() {
+		release.countDown();
+		server.stop();
+	}
+
+	static String get(String path) {
+		return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+	}
+
+	/**
+	 * Begins a shutdown on another thread once a request is in flight, returning when the
+	 * server socket has been closed.
+	 */
+	void shutdownWhileInFlight(RawClient client) throws Exception {
+		client.send(get("/slow"));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		new Thread(() -> {
+			server.shutdown(Duration.ofSeconds(10));
+			stopped.countDown();
+		}).start();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (server.isAlive()) {
+			assertTrue("still accepting", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void inFlightRequestsCompleteDuringShutdown() throws Exception {
+		try (RawClient client = new RawClient(server)) {
+			shutdownWhileInFlight(client);
+			assertFalse(stopped.await(100, TimeUnit.MILLISECONDS));
+
+			release.countDown();
+			Head head = client.readHead();
+			assertEquals(200, head.status);
+			assertEquals("close", head.header("Connection"));
+			assertEquals("slow", client.readBody(head));
+			assertTrue(client.isClosedByServer());
+			assertTrue(stopped.await(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void shutdownGivesUpAfterTheTimeout() throws Exception {
+		try (RawClient client = new RawClient(server)) {
+			client.send(get("/slow"));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			long start = System.nanoTime();
+			server.shutdown(Duration.ofMillis(200));
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			assertTrue(client.isClosedByServer());
+		}
+	}
+
+	@Test
+	public void keepAliveConnectionsCloseAfterTheirNextResponse() throws Exception {
+		try (RawClient slow = new RawClient(server);
+				RawClient sticky = new RawClient(server);
+				RawClient broken = new RawClient(server)) {
+			for (RawClient client : new RawClient[] { sticky, broken }) {
+				client.send(get("/fast"));
+				Head head = client.readHead();
+				assertEquals("keep-alive", head.header("Connection"));
+				assertEquals("fast", client.readBody(head));
+			}
+			shutdownWhileInFlight(slow);
+
+			// The handler's own Connection header doesn't keep the connection open.
+			sticky.send(get("/sticky"));
+			Head head = sticky.readHead();
+			assertEquals(200, head.status);
+			assertEquals("close", head.header("Connection"));
+			assertEquals("sticky", sticky.readBody(head));
+			assertTrue(sticky.isClosedByServer());
+
+			// Nor do error responses.
+			broken.send("BREW / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			head = broken.readHead();
+			assertEquals(400, head.status);
+			assertEquals("close", head.header("Connection"));
+			broken.readBody(head);
+			assertTrue(broken.isClosedByServer());
+
+			release.countDown();
+			assertEquals(200, slow.readHead().status);
+			assertTrue(stopped.await(5, TimeUnit.SECONDS));
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package droute.nanohttpd;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.Arrays;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+import droute.Response;
+
+public class TestTls {
+	NanoServer server;
+
+	static SSLContext context() throws Exception {
+		char[] password = "changeit".toCharArray();
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream in = TestTls.class.getResourceAsStream("/localhost.p12")) {
+			keyStore.load(in, password);
+		}
+		KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keys.init(keyStore, password);
+		TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(keyStore);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+		return context;
+	}
+
+	NanoServer start(ApplicationProtocols applicationProtocols) throws Exception {
+		server = new NanoServer(request -> Response.response("hello"), "127.0.0.1", 0);
+		server.applicationProtocols = applicationProtocols;
+		server.makeSecure(context(), null);
+		return server;
+	}
+
+	/**
+	 * Connects offering http/1.1 and x-droute, returning the negotiated protocol.
+	 */
+	static SSLSocket connect(NanoServer server) throws Exception {
+		SSLSocket socket = (SSLSocket) context().getSocketFactory().createSocket("127.0.0.1", server.getListeningPort());
+		SSLParameters parameters = socket.getSSLParameters();
+		parameters.setApplicationProtocols(new String[] { "http/1.1", "x-droute" });
+		socket.setSSLParameters(parameters);
+		socket.setSoTimeout(5000);
+		socket.startHandshake();
+		return socket;
+	}
+
+	static String get(SSLSocket socket) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+	}
+
+	@After
+	public void stop() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void selectorChoosesTheProtocol() throws Exception {
+		assumeTrue(ApplicationProtocols.RUNTIME.isSupported());
+		start(ApplicationProtocols.RUNTIME);
+		server.setApplicationProtocolSelector((socket, offered) -> offered.contains("x-droute") ? "x-droute" : "");
+		server.start();
+		try (SSLSocket socket = connect(server)) {
+			assertEquals("x-droute", socket.getApplicationProtocol());
+			assertTrue(get(socket).startsWith("HTTP/1.1 200 "));
+		}
+	}
+
+	@Test
+	public void selectorOfferedNothingItKnowsProceedsWithoutAlpn() throws Exception {
+		assumeTrue(ApplicationProtocols.RUNTIME.isSupported());
+		start(ApplicationProtocols.RUNTIME);
+		server.setApplicationProtocolSelector((socket, offered) -> offered.contains("h2") ? "h2" : "");
+		server.start();
+		try (SSLSocket socket = connect(server)) {
+			assertEquals("", socket.getApplicationProtocol());
+			assertTrue(get(socket).startsWith("HTTP/1.1 200 "));
+		}
+	}
+
+	@Test
+	public void runtimesWithoutAlpnRejectSelectors() throws Exception {
+		start(new ApplicationProtocols(null));
+		try {
+			server.setApplicationProtocolSelector((socket, offered) -> "x-droute");
+			fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void runtimesWithoutAlpnStillServeTls() throws Exception {
+		start(new ApplicationProtocols(null));
+		server.start();
+		try (SSLSocket socket = connect(server)) {
+			assertTrue(Arrays.asList("", null).contains(socket.getApplicationProtocol()));
+			assertTrue(get(socket).startsWith("HTTP/1.1 200 "));
+		}
+	}
+}
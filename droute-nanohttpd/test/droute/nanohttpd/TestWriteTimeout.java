@@ -0,0 +1,81 @@
+package droute.nanohttpd;
+
+import static droute.Response.response;
+import static droute.Route.GET;
+import static droute.Route.routes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import droute.Streamable;
+import droute.nanohttpd.RawClient.Head;
+
+public class TestWriteTimeout {
+	static final int CHUNK = 64 * 1024;
+
+	final CountDownLatch finished = new CountDownLatch(1);
+	final AtomicReference<IOException> failure = new AtomicReference<>();
+	NanoServer server;
+
+	/**
+	 * Writes the given number of chunks, recording whether the writes failed.
+	 */
+	Streamable chunks(int count) {
+		return out -> {
+			try {
+				byte[] chunk = new byte[CHUNK];
+				for (int i = 0; i < count; i++) {
+					out.write(chunk);
+				}
+			} catch (IOException e) {
+				failure.set(e);
+				throw e;
+			} finally {
+				finished.countDown();
+			}
+		};
+	}
+
+	@Before
+	public void start() throws IOException {
+		server = new NanoServer(routes(
+				GET("/small", request -> response(chunks(16))),
+				GET("/endless", request -> response(chunks(Integer.MAX_VALUE)))), "127.0.0.1", 0);
+		server.setWriteTimeout(300);
+		server.start();
+	}
+
+	@After
+	public void stop() {
+		server.stop();
+	}
+
+	@Test
+	public void stalledClientsAreDisconnected() throws Exception {
+		try (RawClient client = new RawClient(server, 4096)) {
+			client.send("GET /endless HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			// Never reading, so the server's writes soon block.
+			assertTrue("writer still blocked", finished.await(5, TimeUnit.SECONDS));
+			assertNotNull(failure.get());
+		}
+	}
+
+	@Test
+	public void clientsKeepingUpAreServed() throws Exception {
+		try (RawClient client = new RawClient(server)) {
+			client.send("GET /small HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			Head head = client.readHead();
+			assertEquals(200, head.status);
+			assertEquals(16 * CHUNK, client.readBody(head).length());
+			assertTrue(finished.await(5, TimeUnit.SECONDS));
+			assertNull(failure.get());
+		}
+	}
+}